@@ -4,7 +4,15 @@ import gg.essential.loader.fixtures.Installation;
 import gg.essential.loader.fixtures.IsolatedLaunch;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -16,10 +24,15 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class RelaunchTests {
@@ -262,4 +275,127 @@ public class RelaunchTests {
 
         assertTrue(isolatedLaunch.isEssentialLoaded(), "Essential loaded");
     }
+
+    @Test
+    public void testRelaunchClassLoaderIndex(Installation installation) throws Exception {
+        IsolatedLaunch isolatedLaunch = newDevLaunch(installation, LAUNCH_WRAPPER_MAIN, "--tweakClass", FML_TWEAKER);
+        isolatedLaunch.launch();
+        assertTrue(isolatedLaunch.getModLoadState("relaunched"), "Re-launched");
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> blackboard = (Map<String, Object>) isolatedLaunch.getClass(LAUNCH_WRAPPER_MAIN)
+            .getDeclaredField("blackboard")
+            .get(null);
+        ClassLoader relaunchClassLoader = (ClassLoader) blackboard.get("gg.essential.loader.stage2.relaunchClassLoader");
+        assertNotNull(relaunchClassLoader, "relaunch class loader");
+
+        // The test class path contains folders, which cannot be indexed, so we need to build our own loader with
+        // only jars on its class path to exercise the index.
+        String markerPath = IndexMarker.class.getName().replace('.', '/') + ".class";
+        String addedMarkerPath = AddedMarker.class.getName().replace('.', '/') + ".class";
+        Path jar1 = createJar(installation.gameDir.resolve("index-test-1.jar"),
+            markerPath, readClass(IndexMarker.class),
+            "index-test/resource.txt", "1".getBytes(StandardCharsets.UTF_8),
+            "index-test/dir with space/resource.txt", "1".getBytes(StandardCharsets.UTF_8));
+        Path jar2 = createJar(installation.gameDir.resolve("index-test-2.jar"),
+            "index-test/resource.txt", "2".getBytes(StandardCharsets.UTF_8));
+        Path addedJar = createJar(installation.gameDir.resolve("index-test-added.jar"),
+            addedMarkerPath, readClass(AddedMarker.class),
+            "index-test/added.txt", "3".getBytes(StandardCharsets.UTF_8));
+        URL[] urls = { jar1.toUri().toURL(), jar2.toUri().toURL() };
+
+        Class<?> isolatedClassLoaderClass = relaunchClassLoader.getClass().getSuperclass();
+        Constructor<?> constructor = isolatedClassLoaderClass.getDeclaredConstructor(URL[].class, ClassLoader.class);
+        constructor.setAccessible(true);
+        Field indexField = isolatedClassLoaderClass.getDeclaredField("index");
+        indexField.setAccessible(true);
+        Method addUrl = isolatedClassLoaderClass.getDeclaredMethod("addURL", URL.class);
+        addUrl.setAccessible(true);
+
+        ClassLoader emptyParent = new URLClassLoader(new URL[0], null);
+        try (URLClassLoader loader = (URLClassLoader) constructor.newInstance(urls, emptyParent);
+             URLClassLoader reference = new URLClassLoader(urls, null)) {
+            assertNotNull(indexField.get(loader), "index");
+
+            // Lookups through the index must behave exactly like the regular URLClassLoader lookups
+            for (String name : Arrays.asList("index-test/resource.txt", "index-test/dir with space/resource.txt", "index-test/", "index-test/missing.txt", markerPath)) {
+                assertEquals(reference.getResource(name), loader.getResource(name), name);
+                assertEquals(Collections.list(reference.getResources(name)), Collections.list(loader.getResources(name)), name);
+            }
+            Class<?> marker = loader.loadClass(IndexMarker.class.getName());
+            assertSame(loader, marker.getClassLoader());
+
+            // Urls added after construction are not part of the index, so it must not be used anymore, and neither may
+            // any misses which we remembered from before
+            assertNull(loader.getResource("index-test/added.txt"));
+            assertThrows(ClassNotFoundException.class, () -> loader.loadClass(AddedMarker.class.getName()));
+            assertThrows(ClassNotFoundException.class, () -> loader.loadClass(AddedMarker.class.getName()));
+            addUrl.invoke(loader, addedJar.toUri().toURL());
+            assertNull(indexField.get(loader), "index after addURL");
+            assertNotNull(loader.getResource("index-test/added.txt"), "resource from added url");
+            assertSame(loader, loader.loadClass(AddedMarker.class.getName()).getClassLoader());
+            assertSame(marker, loader.loadClass(IndexMarker.class.getName()));
+        }
+
+        // RelaunchClassLoader additionally reads class bytes directly from the jars in the index
+        Constructor<?> relaunchConstructor = relaunchClassLoader.getClass().getDeclaredConstructors()[0];
+        relaunchConstructor.setAccessible(true);
+        Field missingClassesField = isolatedClassLoaderClass.getDeclaredField("missingClasses");
+        missingClassesField.setAccessible(true);
+        try (GrowableClassLoader parent = new GrowableClassLoader();
+             URLClassLoader loader = (URLClassLoader) relaunchConstructor.newInstance(urls, parent, installation.gameDir, null)) {
+            assertNotNull(indexField.get(loader), "index");
+            Class<?> marker = loader.loadClass(IndexMarker.class.getName());
+            assertSame(loader, marker.getClassLoader());
+            assertEquals(urls[0], marker.getProtectionDomain().getCodeSource().getLocation());
+
+            // Misses are remembered, but only for as long as no urls are added to the parent, where we also look
+            assertThrows(ClassNotFoundException.class, () -> loader.loadClass(AddedMarker.class.getName()));
+            Object missingClasses = missingClassesField.get(loader);
+            Method getIfPresent = Class.forName("com.google.common.cache.Cache", false, missingClasses.getClass().getClassLoader())
+                .getMethod("getIfPresent", Object.class);
+            assertNotNull(getIfPresent.invoke(missingClasses, AddedMarker.class.getName()), "cached miss");
+            assertThrows(ClassNotFoundException.class, () -> loader.loadClass(AddedMarker.class.getName()));
+            parent.addURL(addedJar.toUri().toURL());
+            assertSame(loader, loader.loadClass(AddedMarker.class.getName()).getClassLoader());
+        }
+    }
+
+    public static class GrowableClassLoader extends URLClassLoader {
+        public GrowableClassLoader() {
+            super(new URL[0], null);
+        }
+
+        @Override
+        public void addURL(URL url) {
+            super.addURL(url);
+        }
+    }
+
+    public static class IndexMarker {}
+
+    public static class AddedMarker {}
+
+    private static byte[] readClass(Class<?> cls) throws IOException {
+        try (InputStream in = cls.getResourceAsStream("/" + cls.getName().replace('.', '/') + ".class")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static Path createJar(Path file, Object... entries) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file); JarOutputStream jar = new JarOutputStream(out)) {
+            for (int i = 0; i < entries.length; i += 2) {
+                jar.putNextEntry(new ZipEntry((String) entries[i]));
+                jar.write((byte[]) entries[i + 1]);
+                jar.closeEntry();
+            }
+        }
+        return file;
+    }
 }
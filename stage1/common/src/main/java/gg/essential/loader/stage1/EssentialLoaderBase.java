@@ -5,6 +5,9 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import gg.essential.loader.stage1.gui.ForkedUpdatePromptUI;
+import gg.essential.loader.stage1.util.ChecksumCache;
+import gg.essential.loader.stage1.util.MetadataCache;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -13,6 +16,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -22,9 +26,13 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Enumeration;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.regex.Pattern;
 
 import static gg.essential.loader.stage1.VersionComparison.compareVersions;
 
@@ -49,12 +57,16 @@ public abstract class EssentialLoaderBase {
     private static final String PENDING_UPDATE_VERSION_KEY = "pendingUpdateVersion";
     private static final String PENDING_UPDATE_RESOLUTION_KEY = "pendingUpdateResolution";
 
+    /** MD5 checksums as sent by the server, in hex. */
+    private static final Pattern CHECKSUM_PATTERN = Pattern.compile("[0-9a-fA-F]{32}");
+
     private static final boolean RELAUNCHING = Boolean.parseBoolean(System.getProperty("essential.loader.relaunched", "false"));
 
     private final String variant;
     private final String gameVersion;
     private Object stage2;
     private boolean loaded;
+    private MetadataCache metadataCache;
 
     EssentialLoaderBase(final String variant, final String gameVersion) {
         this.variant = variant;
@@ -67,6 +79,8 @@ public abstract class EssentialLoaderBase {
         }
         this.loaded = true; // setting this now, no point in retrying when we error
 
+        this.metadataCache = new MetadataCache(gameDir.resolve("essential").resolve("loader").resolve("metadata-cache"));
+
         final Path dataDir = gameDir
             .resolve("essential")
             .resolve("loader")
@@ -81,6 +95,8 @@ public abstract class EssentialLoaderBase {
             Files.createDirectories(dataDir);
         }
 
+        final ChecksumCache checksumCache = new ChecksumCache(dataDir.resolve("checksum-cache.properties"));
+
         Properties defaultProps = new Properties();
 
         // Loading pinned configs
@@ -153,7 +169,7 @@ public abstract class EssentialLoaderBase {
             localMd5 = properties.getProperty("md5");
 
             // If the checksum is invalid, throw it away
-            if (!localMd5.equals(getChecksum(stage2File))) {
+            if (!localMd5.equals(checksumCache.getChecksum(stage2File))) {
                 localVersion = null;
                 localMd5 = null;
             }
@@ -351,15 +367,6 @@ public abstract class EssentialLoaderBase {
         }
     }
 
-    private String getChecksum(final Path input) {
-        try (final InputStream inputStream = Files.newInputStream(input)) {
-            return DigestUtils.md5Hex(inputStream);
-        } catch (final Exception e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
     private String getChecksum(final URL input) {
         try (final InputStream inputStream = input.openStream()) {
             return DigestUtils.md5Hex(inputStream);
@@ -387,14 +394,22 @@ public abstract class EssentialLoaderBase {
         return urlConnection;
     }
 
-    private JsonObject fetchJsonObject(String endpoint, boolean allowEmpty) {
+    /**
+     * @param cacheable whether the response may be served from/stored in the {@link MetadataCache}; should only be
+     *                  used for version checks, not for download urls which may be short-lived
+     */
+    private JsonObject fetchJsonObject(String endpoint, boolean allowEmpty, boolean cacheable) {
         URLConnection connection = null;
         try {
             connection = this.prepareConnection(new URL(endpoint));
 
             String response;
-            try (final InputStream inputStream = connection.getInputStream()) {
-                response = IOUtils.toString(inputStream, Charset.defaultCharset());
+            if (cacheable) {
+                response = this.metadataCache.fetch(connection);
+            } else {
+                try (final InputStream inputStream = connection.getInputStream()) {
+                    response = IOUtils.toString(inputStream, Charset.defaultCharset());
+                }
             }
 
             JsonElement jsonElement = new JsonParser().parse(response);
@@ -415,7 +430,7 @@ public abstract class EssentialLoaderBase {
 
     private FileMeta fetchLatestMetadata(String branch) {
         JsonObject responseObject = fetchJsonObject(String.format(VERSION_URL,
-            branch, this.gameVersion.replace(".", "-")), true);
+            branch, this.gameVersion.replace(".", "-")), true, true);
 
         if (responseObject == null) {
             LOGGER.warn("Essential does not support the following game version: {}", this.gameVersion);
@@ -439,7 +454,7 @@ public abstract class EssentialLoaderBase {
 
     private URL fetchDownloadUrl(String version) {
         JsonObject responseObject = fetchJsonObject(String.format(DOWNLOAD_URL,
-            version, this.gameVersion.replace(".", "-")), false);
+            version, this.gameVersion.replace(".", "-")), false, false);
 
         if (responseObject == null) {
             return null;
@@ -460,17 +475,67 @@ public abstract class EssentialLoaderBase {
     }
 
     private boolean downloadFile(FileMeta meta, Path target) {
+        // The checksum comes from the server and is used in file names below, so make sure it is what it claims to be
+        if (!isValidChecksum(meta.checksum)) {
+            LOGGER.warn("Received invalid checksum `{}` for {}", meta.checksum, meta.url);
+            return false;
+        }
+
+        // Partial downloads are kept around (keyed by checksum), so we can resume them if we fail half way through.
+        // Note: Keep layout and format in sync with stage2's Downloader
+        final Path downloadsDir = target.resolveSibling("downloads");
+        final Path partFile = downloadsDir.resolve(meta.checksum + ".part");
+        final Path partMetaFile = downloadsDir.resolve(meta.checksum + ".part.meta");
+
         URLConnection connection = null;
+        // Compute the checksum while downloading, so we do not have to read the whole file again afterwards
+        final MessageDigest digest = DigestUtils.getMd5Digest();
         try {
+            Files.createDirectories(downloadsDir);
+            long offset = getResumableOffset(partFile, partMetaFile, meta.checksum);
+
             connection = this.prepareConnection(meta.url);
-            Files.copy(connection.getInputStream(), target, StandardCopyOption.REPLACE_EXISTING);
+            if (offset > 0 && connection instanceof HttpURLConnection) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                // Content-Range: bytes 1234-5678/5679
+                String contentRange = connection.getHeaderField("Content-Range");
+                if (((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                    || contentRange == null || !contentRange.startsWith("bytes " + offset + "-")) {
+                    offset = 0; // server does not support resuming, start over
+                }
+            } else {
+                offset = 0;
+            }
+            if (offset > 0) {
+                LOGGER.info("Resuming download of {} at {}KB", meta.url, offset / 1024);
+                try (InputStream in = Files.newInputStream(partFile)) {
+                    DigestUtils.updateDigest(digest, in);
+                }
+            }
+
+            long contentLength = connection.getContentLengthLong();
+            Properties partMeta = new Properties();
+            partMeta.setProperty("checksum", meta.checksum);
+            partMeta.setProperty("size", String.valueOf(contentLength < 0 ? -1 : offset + contentLength));
+            writeProperties(partMetaFile, partMeta);
+
+            StandardOpenOption mode = offset > 0 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+            try (
+                InputStream in = new DigestInputStream(connection.getInputStream(), digest);
+                OutputStream out = Files.newOutputStream(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)
+            ) {
+                IOUtils.copyLarge(in, out);
+            }
+
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(partMetaFile);
         } catch (final IOException e) {
             LOGGER.error("Error occurred when downloading file '{}'.", meta.url, e);
             logConnectionInfoOnError(connection);
             return false;
         }
 
-        final String actualHash = this.getChecksum(target);
+        final String actualHash = Hex.encodeHexString(digest.digest());
         if (!meta.checksum.equals(actualHash)) {
             LOGGER.warn(
                 "Downloaded Essential file checksum did not match what we expected (actual={}, expected={}",
@@ -482,6 +547,31 @@ public abstract class EssentialLoaderBase {
         return true;
     }
 
+    private long getResumableOffset(Path partFile, Path partMetaFile, String checksum) {
+        if (!Files.exists(partFile) || !Files.exists(partMetaFile)) {
+            return 0;
+        }
+        try {
+            Properties partMeta = new Properties();
+            try (InputStream in = Files.newInputStream(partMetaFile)) {
+                partMeta.load(in);
+            }
+            long expectedSize = Long.parseLong(partMeta.getProperty("size", "-1"));
+            long size = Files.size(partFile);
+            if (!checksum.equals(partMeta.getProperty("checksum")) || expectedSize < 0 || size >= expectedSize) {
+                return 0; // cannot tell whether the file is valid, better start over
+            }
+            return size;
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Failed to read partial download metadata at " + partMetaFile + ":", e);
+            return 0;
+        }
+    }
+
+    private static boolean isValidChecksum(String checksum) {
+        return checksum != null && CHECKSUM_PATTERN.matcher(checksum).matches();
+    }
+
     private void logConnectionInfoOnError(URLConnection connection) {
         if (connection == null) {
             return;
@@ -493,7 +583,7 @@ public abstract class EssentialLoaderBase {
     private Boolean showUpdatePrompt(String version) {
         String description = "";
         try {
-            JsonObject responseObject = fetchJsonObject(String.format(CHANGELOG_URL, version), false);
+            JsonObject responseObject = fetchJsonObject(String.format(CHANGELOG_URL, version), false, false);
 
             if (responseObject != null) {
                 description = responseObject.get("summary").getAsString();
@@ -0,0 +1,140 @@
+package gg.essential.loader.stage1.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Note: Keep in sync between stage1 and stage2
+/**
+ * Persistent cache of MD5 checksums, so large jars which have not changed since the last boot need not be hashed again.
+ * <p>
+ * Entries are keyed by path and are only used while the file's size, modification time and (where supported) file key
+ * are unchanged. To also catch modifications which preserve all of those, entries are verified again once they are
+ * older than the {@code essential.loader.checksumCache.maxAge} system property (in seconds, one week by default; zero
+ * disables the cache).
+ * <p>
+ * This class is thread-safe.
+ */
+public class ChecksumCache {
+    private static final Logger LOGGER = LogManager.getLogger(ChecksumCache.class);
+    private static final long DEFAULT_MAX_AGE_SECONDS = TimeUnit.DAYS.toSeconds(7);
+
+    private final Path file;
+    private final long maxAgeMillis;
+    private Properties entries;
+
+    public ChecksumCache(Path file) {
+        this(file, TimeUnit.SECONDS.toMillis(Long.getLong("essential.loader.checksumCache.maxAge", DEFAULT_MAX_AGE_SECONDS)));
+    }
+
+    public ChecksumCache(Path file, long maxAgeMillis) {
+        this.file = file;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Returns the MD5 checksum of the given file, or {@code null} if it cannot be read.
+     */
+    public String getChecksum(Path path) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return computeChecksum(path);
+        }
+        String key = path.toAbsolutePath().normalize().toString();
+        // size|mtime|verified|md5|fileKey
+        String stamp = attributes.size() + "|" + attributes.lastModifiedTime().toMillis();
+        String fileKey = String.valueOf(attributes.fileKey());
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            String entry = getEntries().getProperty(key);
+            String[] parts = entry != null ? entry.split("\\|", 5) : null;
+            if (parts != null && parts.length == 5 && stamp.equals(parts[0] + "|" + parts[1]) && fileKey.equals(parts[4])) {
+                try {
+                    long verified = Long.parseLong(parts[2]);
+                    if (now >= verified && now - verified < maxAgeMillis) {
+                        return parts[3];
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        String checksum = computeChecksum(path);
+        if (checksum == null || maxAgeMillis <= 0) {
+            return checksum;
+        }
+
+        synchronized (this) {
+            getEntries().setProperty(key, stamp + "|" + now + "|" + checksum + "|" + fileKey);
+            save();
+        }
+        return checksum;
+    }
+
+    private static String computeChecksum(Path path) {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return DigestUtils.md5Hex(inputStream);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to compute checksum of " + path + ":", e);
+            return null;
+        }
+    }
+
+    private Properties getEntries() {
+        if (entries == null) {
+            entries = new Properties();
+            if (Files.exists(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    entries.load(in);
+                } catch (Exception e) {
+                    LOGGER.warn("Failed to read checksum cache at " + file + ":", e);
+                }
+            }
+            // Forget about files which no longer exist
+            entries.stringPropertyNames().stream()
+                .filter(path -> !exists(path))
+                .forEach(entries::remove);
+        }
+        return entries;
+    }
+
+    private static boolean exists(String path) {
+        try {
+            return Files.exists(Paths.get(path));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(file.getParent());
+            Path tempFile = Files.createTempFile(file.getParent(), "tmp-", ".properties");
+            try {
+                try (Writer out = Files.newBufferedWriter(tempFile)) {
+                    entries.store(out, null);
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write checksum cache to " + file + ":", e);
+        }
+    }
+}
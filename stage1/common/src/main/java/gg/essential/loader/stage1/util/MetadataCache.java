@@ -0,0 +1,157 @@
+package gg.essential.loader.stage1.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Note: Keep in sync between stage1 and stage2
+/**
+ * Persistent cache for small API responses, e.g. version metadata.
+ * <p>
+ * Each response is stored in its own properties file together with its ETag and Last-Modified headers.
+ * Responses younger than the configured max age (in seconds, via the {@code essential.loader.metadataCache.maxAge}
+ * system property, zero by default) are served without any network access. Older ones are revalidated via a
+ * conditional request, with a {@code 304 Not Modified} response counting as a cache hit.
+ * Responses without any validators are only stored if the max age is non-zero.
+ */
+public class MetadataCache {
+    private static final Logger LOGGER = LogManager.getLogger(MetadataCache.class);
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_FETCHED = "fetched";
+    private static final String KEY_BODY = "body";
+
+    private final Path dir;
+    private final long maxAgeMillis;
+
+    public MetadataCache(Path dir) {
+        this(dir, TimeUnit.SECONDS.toMillis(Long.getLong("essential.loader.metadataCache.maxAge", 0)));
+    }
+
+    public MetadataCache(Path dir, long maxAgeMillis) {
+        this.dir = dir;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Returns the response body for the given (not yet connected) connection, either from cache or by connecting.
+     */
+    public String fetch(URLConnection connection) throws IOException {
+        String url = connection.getURL().toString();
+        Path file = dir.resolve(DigestUtils.md5Hex(url) + ".properties");
+
+        Properties cached = read(file, url);
+        long now = System.currentTimeMillis();
+        if (cached != null) {
+            long fetched = Long.parseLong(cached.getProperty(KEY_FETCHED));
+            if (now >= fetched && now - fetched < maxAgeMillis) {
+                LOGGER.debug("Using cached response for {}", url);
+                return cached.getProperty(KEY_BODY);
+            }
+
+            String etag = cached.getProperty(KEY_ETAG);
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            String lastModified = cached.getProperty(KEY_LAST_MODIFIED);
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+
+            if (connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                LOGGER.debug("Cached response for {} is still up-to-date", url);
+                cached.setProperty(KEY_FETCHED, String.valueOf(now));
+                write(file, cached);
+                return cached.getProperty(KEY_BODY);
+            }
+        }
+
+        String body;
+        try (InputStream in = connection.getInputStream()) {
+            body = IOUtils.toString(in, Charset.defaultCharset());
+        }
+
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        if (etag != null || lastModified != null || maxAgeMillis > 0) {
+            Properties entry = new Properties();
+            entry.setProperty(KEY_URL, url);
+            if (etag != null) {
+                entry.setProperty(KEY_ETAG, etag);
+            }
+            if (lastModified != null) {
+                entry.setProperty(KEY_LAST_MODIFIED, lastModified);
+            }
+            entry.setProperty(KEY_FETCHED, String.valueOf(now));
+            entry.setProperty(KEY_BODY, body);
+            write(file, entry);
+        } else if (cached != null) {
+            delete(file);
+        }
+
+        return body;
+    }
+
+    private static Properties read(Path file, String url) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to read cached response at " + file + ":", e);
+            return null;
+        }
+        if (!url.equals(properties.getProperty(KEY_URL)) || properties.getProperty(KEY_BODY) == null) {
+            return null;
+        }
+        try {
+            Long.parseLong(properties.getProperty(KEY_FETCHED));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return properties;
+    }
+
+    private void write(Path file, Properties properties) {
+        try {
+            Files.createDirectories(dir);
+            Path tempFile = Files.createTempFile(dir, "tmp-", ".properties");
+            try {
+                try (Writer out = Files.newBufferedWriter(tempFile)) {
+                    properties.store(out, null);
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write cached response to " + file + ":", e);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete cached response at " + file + ":", e);
+        }
+    }
+}
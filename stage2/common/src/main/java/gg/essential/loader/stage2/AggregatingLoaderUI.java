@@ -0,0 +1,77 @@
+package gg.essential.loader.stage2;
+
+/**
+ * Combines the progress of multiple concurrent downloads into a single {@link LoaderUI}.
+ * <p>
+ * Each download source gets its own {@link #newChild() child UI}. The inner UI is started when the first child starts
+ * and completed once the last active child completes; in between it shows the sum of all sizes and downloaded bytes.
+ * All calls to the inner UI are serialized, so it does not need to be thread-safe itself.
+ */
+public class AggregatingLoaderUI {
+    private final LoaderUI inner;
+
+    private int active;
+    private long totalSize;
+    private long totalDownloaded;
+
+    public AggregatingLoaderUI(LoaderUI inner) {
+        this.inner = inner;
+    }
+
+    public LoaderUI newChild() {
+        return new LoaderUI() {
+            private int size;
+            private int downloaded;
+
+            @Override
+            public void start() {
+                synchronized (AggregatingLoaderUI.this) {
+                    size = 0;
+                    downloaded = 0;
+                    if (active++ == 0) {
+                        totalSize = 0;
+                        totalDownloaded = 0;
+                        inner.start();
+                    }
+                }
+            }
+
+            @Override
+            public void setDownloadSize(int bytes) {
+                bytes = Math.max(bytes, 0); // unknown size
+                synchronized (AggregatingLoaderUI.this) {
+                    // A new download replaces whatever this child downloaded before
+                    totalSize += bytes - size;
+                    totalDownloaded -= downloaded;
+                    size = bytes;
+                    downloaded = 0;
+                    inner.setDownloadSize(clamp(totalSize));
+                }
+            }
+
+            @Override
+            public void setDownloaded(int bytes) {
+                synchronized (AggregatingLoaderUI.this) {
+                    totalDownloaded += bytes - downloaded;
+                    downloaded = bytes;
+                    if (totalSize > 0) {
+                        inner.setDownloaded(clamp(totalDownloaded));
+                    }
+                }
+            }
+
+            @Override
+            public void complete() {
+                synchronized (AggregatingLoaderUI.this) {
+                    if (active > 0 && --active == 0) {
+                        inner.complete();
+                    }
+                }
+            }
+        };
+    }
+
+    private static int clamp(long bytes) {
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
@@ -4,14 +4,20 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import gg.essential.loader.stage2.api.BatchMetadataClient;
 import gg.essential.loader.stage2.components.ForkedUpdatePromptUI;
 import gg.essential.loader.stage2.data.ModId;
 import gg.essential.loader.stage2.data.ModJarMetadata;
 import gg.essential.loader.stage2.data.ModVersion;
 import gg.essential.loader.stage2.diff.DiffPatcher;
+import gg.essential.loader.stage2.download.Downloader;
 import gg.essential.loader.stage2.jvm.ForkedJvmLoaderSwingUI;
 import gg.essential.loader.stage2.restart.ForkedNeedsRestartUI;
-import gg.essential.loader.stage2.util.Checksum;
+import gg.essential.loader.stage2.util.ChecksumCache;
+import gg.essential.loader.stage2.util.GarbageCollector;
+import gg.essential.loader.stage2.util.JarStore;
+import gg.essential.loader.stage2.util.MetadataCache;
+import gg.essential.loader.stage2.util.RawZipFile;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -23,7 +29,6 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -48,10 +53,14 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static gg.essential.loader.stage2.Utils.findMostRecentFile;
@@ -60,6 +69,7 @@ import static gg.essential.loader.stage2.util.Checksum.getChecksum;
 import static gg.essential.loader.stage2.util.VersionComparison.compareVersions;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
 
 public abstract class EssentialLoaderBase {
@@ -72,8 +82,12 @@ public abstract class EssentialLoaderBase {
     private static final String VERSION_BASE_URL = BASE_URL + "/v1/%s/versions/%s";
     private static final String VERSION_URL = VERSION_BASE_URL + "/platforms/%s";
     private static final String DOWNLOAD_URL = VERSION_URL + "/download";
-    private static final String DIFF_URL = VERSION_BASE_URL + "/diff/%s/platforms/%s";
+    // Tells the server we can apply diffs containing per-entry binary deltas (see DiffPatcher)
+    private static final String DIFF_URL = VERSION_BASE_URL + "/diff/%s/platforms/%s?deltas=true";
     private static final String CHANGELOG_URL = VERSION_BASE_URL + "/changelog";
+    private static final String BATCH_URL = BASE_URL + "/v1/batch/versions";
+    // Opt-in for now, servers which do not support it yet would cost us an extra round trip
+    private static final boolean BATCH_METADATA = Boolean.getBoolean("essential.loader.batchMetadata");
     protected static final String CLASS_NAME = "gg.essential.api.tweaker.EssentialTweaker";
     private static final String FILE_BASE_NAME = "Essential (%s)";
     protected static final String FILE_EXTENSION = "jar";
@@ -81,12 +95,26 @@ public abstract class EssentialLoaderBase {
     private static final String OVERRIDE_PINNED_VERSION_KEY = "overridePinnedVersion";
     private static final String PENDING_UPDATE_VERSION_KEY = "pendingUpdateVersion";
     private static final String PENDING_UPDATE_RESOLUTION_KEY = "pendingUpdateResolution";
+    private static final String BACKGROUND_UPDATE_KEY = "backgroundUpdate";
+
+    /** Size (in bytes) to which unused extracted libraries are reduced even before their grace period is over. */
+    private static final long LIBRARIES_MAX_SIZE = Long.getLong("essential.loader.gc.maxSize", 0);
+
+    /** Maximum amount of mods which are fetched/downloaded/extracted at the same time. */
+    private static final int MAX_CONCURRENT_MODS = 4;
 
     private final Path gameDir;
     private final String gameVersion;
     private final String apiGameVersion;
     private final String currentStage2Version;
-    private final LoaderUI ui;
+    private final AggregatingLoaderUI ui;
+    private final MetadataCache metadataCache;
+    private final ChecksumCache checksumCache;
+    private final JarStore jarStore;
+    private final Downloader downloader = new Downloader(this::prepareConnection);
+    private volatile Map<BatchMetadataClient.Request, BatchMetadataClient.Result> batchedMetadata = emptyMap();
+    /** Completes once {@link #batchedMetadata} has been fetched, if that happens in the background. */
+    private volatile CompletableFuture<Void> batchedMetadataFetch = CompletableFuture.completedFuture(null);
 
     public EssentialLoaderBase(final Path gameDir, final String gameVersion) {
         this.gameDir = gameDir;
@@ -107,10 +135,13 @@ public abstract class EssentialLoaderBase {
             }
         }
 
-        this.ui = LoaderUI.all(
+        this.ui = new AggregatingLoaderUI(LoaderUI.all(
             new LoaderLoggingUI().updatesEveryMillis(1000),
             new ForkedJvmLoaderSwingUI().updatesEveryMillis(1000 / 60)
-        );
+        ));
+        this.metadataCache = new MetadataCache(gameDir.resolve("essential").resolve("loader").resolve("metadata-cache"));
+        this.checksumCache = new ChecksumCache(gameDir.resolve("essential").resolve("loader").resolve("checksum-cache.properties"));
+        this.jarStore = new JarStore(gameDir.resolve("essential").resolve("libraries").resolve("store"));
     }
 
     public void load() throws IOException {
@@ -124,31 +155,92 @@ public abstract class EssentialLoaderBase {
         }
 
         List<Mod> modList = findMods();
-        Map<Mod, ModJarMetadata> loadedMods = new HashMap<>();
-        for (Mod mod : modList) {
-            if (Files.notExists(mod.dataDir)) { // check first, symlinks may exist but Java does not consider them directories
-                Files.createDirectories(mod.dataDir);
+
+        if (BATCH_METADATA) {
+            if (modList.stream().anyMatch(this::needsMetadataBeforeLoading)) {
+                fetchBatchedMetadata(modList);
+            } else {
+                // Nothing needs it before loading, so do not hold up the boot for it; the background updates wait for
+                // it instead, so they still benefit from the single request
+                batchedMetadataFetch = CompletableFuture.runAsync(() -> fetchBatchedMetadata(modList), runnable -> {
+                    Thread thread = new Thread(runnable, "Essential Loader Batch Metadata Thread");
+                    thread.setDaemon(true);
+                    thread.start();
+                });
             }
+        }
 
-            ModJarMetadata loadedMeta = loadMod(mod);
+        // Checking for updates, downloading and extracting is mostly waiting on the network and disk, so we do that for
+        // all mods at once. The classpath however is only modified afterwards, in the original order, so the end result
+        // does not depend on which mod happens to finish first.
+        List<Future<PreparedMod>> preparedMods = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(modList.size(), MAX_CONCURRENT_MODS), runnable -> {
+            Thread thread = new Thread(runnable, "Essential Loader Update Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<Mod, ModJarMetadata> loadedMods = new HashMap<>();
+        try {
+            for (Mod mod : modList) {
+                preparedMods.add(executor.submit(() -> {
+                    if (Files.notExists(mod.dataDir)) { // check first, symlinks may exist but Java does not consider them directories
+                        Files.createDirectories(mod.dataDir);
+                    }
 
-            if (loadedMeta == null) {
-                continue;
+                    return prepareMod(mod);
+                }));
             }
-            loadedMods.put(mod, loadedMeta);
 
-            // Put the mod version into the system properties, so the mod can read it to know its own version
-            ModVersion version = loadedMeta.getVersion();
-            if (version.getVersion() != null) {
-                System.setProperty(mod.safeSlug() + ".version", version.getVersion());
+            for (int i = 0; i < modList.size(); i++) {
+                Mod mod = modList.get(i);
+                PreparedMod preparedMod = await(preparedMods.get(i));
+
+                if (preparedMod == null) {
+                    continue;
+                }
+                ModJarMetadata loadedMeta = loadMod(mod, preparedMod);
+                loadedMods.put(mod, loadedMeta);
+
+                // Put the mod version into the system properties, so the mod can read it to know its own version
+                ModVersion version = loadedMeta.getVersion();
+                if (version.getVersion() != null) {
+                    System.setProperty(mod.safeSlug() + ".version", version.getVersion());
+                }
             }
+        } finally {
+            executor.shutdown();
         }
 
+        collectGarbage(modList);
+
         if (loadedMods.keySet().stream().anyMatch(Mod::isEssential)) {
             loadPlatform();
         }
     }
 
+    /**
+     * Removes extracted libraries, partial downloads, etc. which have not been used for a while.
+     * Must be called after all mods have been loaded, so we know which libraries are in use.
+     */
+    private void collectGarbage(List<Mod> mods) {
+        try {
+            GarbageCollector gc = new GarbageCollector(gameDir.resolve("essential").resolve("loader").resolve("gc.properties"));
+            jarStore.getUsedDirectories().forEach(gc::markUsed);
+            gc.sweep(jarStore.getRoot(), Files::isDirectory, LIBRARIES_MAX_SIZE);
+            for (Mod mod : mods) {
+                // Older versions extracted libraries into a separate folder per game version
+                gc.sweep(mod.dataDir.resolve("libraries"), path -> !path.equals(jarStore.getRoot()), 0);
+                // Partial downloads which were never resumed
+                gc.sweep(mod.dataDir.resolve("downloads"), path -> true, 0);
+                // Leftovers from writes which were interrupted
+                gc.sweep(mod.dataDir, path -> path.getFileName().toString().startsWith("tmp-") && path.getFileName().toString().endsWith("." + FILE_EXTENSION), 0);
+            }
+            gc.save();
+        } catch (Throwable t) {
+            LOGGER.warn("Failed to collect garbage:", t);
+        }
+    }
+
     private List<Mod> findMods() {
         List<Mod> modList = new ArrayList<>();
         try {
@@ -209,6 +301,7 @@ public abstract class EssentialLoaderBase {
                 mod.dataDir = dataDir.resolve("mods").resolve(mod.safeSlug());
                 mod.fileBaseName = this.gameVersion;
             }
+            mod.ui = this.ui.newChild();
 
             mod.configFile = mod.dataDir.resolve("essential-loader.properties");
             mod.readConfigFile();
@@ -223,12 +316,117 @@ public abstract class EssentialLoaderBase {
 
             // Write effective autoUpdate value back to the system property, so the mod can know it too
             System.setProperty(mod.safeSlug() + "." + AutoUpdate.KEY, mod.autoUpdate.toPropertyValue());
+
+            String configuredBackgroundUpdate = System.getProperty(mod.safeSlug() + "." + BACKGROUND_UPDATE_KEY, mod.config.getProperty(BACKGROUND_UPDATE_KEY));
+            mod.backgroundUpdate = Boolean.parseBoolean(configuredBackgroundUpdate);
         }
 
         return modList;
     }
 
-    private ModJarMetadata loadMod(Mod mod) throws IOException {
+    /**
+     * Returns whether {@link #prepareMod} may need to know the latest version of the given mod before it can be loaded,
+     * i.e. whether it does anything other than loading the local jar and updating it in the background.
+     */
+    private boolean needsMetadataBeforeLoading(Mod mod) {
+        if (mod.autoUpdate != AutoUpdate.Full || !mod.backgroundUpdate) {
+            return true;
+        }
+        try {
+            return !Files.isDirectory(mod.dataDir)
+                || !Files.exists(findMostRecentFile(mod.dataDir, mod.fileBaseName, FILE_EXTENSION).getKey());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void fetchBatchedMetadata(List<Mod> modList) {
+        List<BatchMetadataClient.Request> requests = new ArrayList<>();
+        for (Mod mod : modList) {
+            requests.add(new BatchMetadataClient.Request(mod.id, mod.branch, readLocalVersion(mod)));
+        }
+
+        BatchMetadataClient client;
+        try {
+            client = new BatchMetadataClient(new URL(BATCH_URL), this.apiGameVersion);
+        } catch (MalformedURLException e) {
+            LOGGER.error("Invalid batch metadata url `" + BATCH_URL + "`:", e);
+            return;
+        }
+
+        Map<BatchMetadataClient.Request, BatchMetadataClient.Result> results = client.fetch(requests);
+        if (results != null) {
+            this.batchedMetadata = results;
+        }
+    }
+
+    /**
+     * Reads the version of the currently installed jar of the given mod, if it can be determined cheaply.
+     * This is only a hint to the batch endpoint (so it can include the right diff), so failure is not a problem.
+     */
+    private ModVersion readLocalVersion(Mod mod) {
+        try {
+            if (!Files.isDirectory(mod.dataDir)) {
+                return null;
+            }
+            Path file = findMostRecentFile(mod.dataDir, mod.fileBaseName, FILE_EXTENSION).getKey();
+            if (!Files.exists(file)) {
+                return null;
+            }
+            ModVersion version = ModJarMetadata.readFromMetaFile(file).getVersion();
+            return version.isUnknown() ? null : version;
+        } catch (IOException e) {
+            LOGGER.debug("Failed to read local version of " + mod + ":", e);
+            return null;
+        }
+    }
+
+    private BatchMetadataClient.Result findBatchedMetadata(ModId modId, String branch) {
+        for (Map.Entry<BatchMetadataClient.Request, BatchMetadataClient.Result> entry : this.batchedMetadata.entrySet()) {
+            if (entry.getKey().getMod().equals(modId) && entry.getKey().getBranch().equals(branch)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private BatchMetadataClient.Result findBatchedMetadata(ModId modId, ModVersion latestVersion) {
+        for (BatchMetadataClient.Result result : this.batchedMetadata.values()) {
+            if (result.getLatest().getMod().equals(modId) && result.getLatest().getVersion().equals(latestVersion)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Gets the most appropriate jar for the given mod into place, checking for updates as configured, and extracts its
+     * inner jars.
+     * This method may be called for multiple mods concurrently.
+     *
+     * @return the jar to be loaded or {@code null} if the mod cannot be loaded
+     */
+    private PreparedMod prepareMod(Mod mod) throws IOException {
         Path essentialFile = findMostRecentFile(mod.dataDir, mod.fileBaseName, FILE_EXTENSION).getKey();
 
         // Load current metadata from existing jar (if one exists)
@@ -237,7 +435,7 @@ public abstract class EssentialLoaderBase {
             try {
                 currentMeta = ModJarMetadata.readFromMetaFile(essentialFile);
                 if (currentMeta == ModJarMetadata.EMPTY) {
-                    currentMeta = ModJarMetadata.readFromJarFile(essentialFile);
+                    currentMeta = ModJarMetadata.readFromJarFile(essentialFile, this.checksumCache);
                 }
             } catch (IOException e) {
                 LOGGER.warn("Failed to read existing " + mod + " jar metadata", e);
@@ -257,16 +455,16 @@ public abstract class EssentialLoaderBase {
                 if (latestMeta == null) {
                     return null;
                 }
-                this.ui.start();
+                mod.ui.start();
                 try {
-                    Path downloadedFile = update(mod, essentialFile, currentMeta, latestMeta);
+                    Path downloadedFile = update(mod, essentialFile, currentMeta, latestMeta, mod.ui);
                     if (downloadedFile == null) {
                         return null;
                     }
                     essentialFile = mod.installFile(essentialFile, downloadedFile, latestMeta);
                     currentMeta = latestMeta;
                 } finally {
-                    this.ui.complete();
+                    mod.ui.complete();
                 }
             }
         }
@@ -280,18 +478,21 @@ public abstract class EssentialLoaderBase {
             currentMeta = mod.pinnedFileMeta();
         }
 
-        if (mod.autoUpdate == AutoUpdate.Full) {
+        if (mod.autoUpdate == AutoUpdate.Full && mod.backgroundUpdate) {
+            // Load what we have right now and only prepare the update for the next boot
+            updateInBackground(mod, essentialFile, currentMeta);
+        } else if (mod.autoUpdate == AutoUpdate.Full) {
             ModJarMetadata latestMeta = fetchLatestVersion(mod, mod.branch);
             if (latestMeta != null && !latestMeta.getChecksum().equals(currentMeta.getChecksum())) {
-                this.ui.start();
+                mod.ui.start();
                 try {
-                    Path downloadedFile = update(mod, essentialFile, currentMeta, latestMeta);
+                    Path downloadedFile = update(mod, essentialFile, currentMeta, latestMeta, mod.ui);
                     if (downloadedFile != null) {
                         essentialFile = mod.installFile(essentialFile, downloadedFile, latestMeta);
                         currentMeta = latestMeta;
                     }
                 } finally {
-                    this.ui.complete();
+                    mod.ui.complete();
                 }
             }
         } else if (mod.autoUpdate == AutoUpdate.Manual) {
@@ -340,9 +541,9 @@ public abstract class EssentialLoaderBase {
 
                     // If the new version was accepted, download it. Otherwise, ignore it.
                     if (resolution == Boolean.TRUE) {
-                        this.ui.start();
+                        mod.ui.start();
                         try {
-                            Path downloadedFile = update(mod, essentialFile, currentMeta, onlineMeta);
+                            Path downloadedFile = update(mod, essentialFile, currentMeta, onlineMeta, mod.ui);
                             if (downloadedFile != null) {
                                 essentialFile = mod.installFile(essentialFile, downloadedFile, onlineMeta);
                                 currentMeta = onlineMeta;
@@ -353,7 +554,7 @@ public abstract class EssentialLoaderBase {
                                 mod.writeConfigFile();
                             }
                         } finally {
-                            this.ui.complete();
+                            mod.ui.complete();
                         }
                     } else {
                         LOGGER.warn("Found newer Essential version {} [{}], skipping {}",
@@ -387,6 +588,17 @@ public abstract class EssentialLoaderBase {
             return null;
         }
 
+        return new PreparedMod(currentMeta, essentialFile, this.extractJarsInJar(mod, essentialFile));
+    }
+
+    /**
+     * Adds a mod prepared by {@link #prepareMod(Mod)} to the classpath.
+     * Unlike preparation, this happens strictly sequentially and in the order in which mods were found.
+     */
+    private ModJarMetadata loadMod(Mod mod, PreparedMod preparedMod) throws IOException {
+        ModJarMetadata currentMeta = preparedMod.meta;
+        Path essentialFile = preparedMod.file;
+
         // Check if the current stage2 meets the requirements of the mod
         String requiredStage2Version = getRequiredStage2VersionIfOutdated(essentialFile);
         if (requiredStage2Version != null) {
@@ -418,7 +630,7 @@ public abstract class EssentialLoaderBase {
             throw new AssertionError("JVM should have exited by now");
         }
 
-        this.addToClasspath(mod, currentMeta, essentialFile, this.extractJarsInJar(mod, essentialFile));
+        this.addToClasspath(mod, currentMeta, essentialFile, preparedMod.innerJars);
 
         return currentMeta;
     }
@@ -491,25 +703,60 @@ public abstract class EssentialLoaderBase {
         }
     }
 
-    private Path update(Mod mod, Path essentialFile, ModJarMetadata currentMeta, ModJarMetadata latestMeta) throws IOException {
+    private void updateInBackground(Mod mod, Path essentialFile, ModJarMetadata currentMeta) {
+        Thread thread = new Thread(() -> {
+            try {
+                try {
+                    batchedMetadataFetch.join();
+                } catch (CompletionException e) {
+                    LOGGER.debug("Failed to fetch batched metadata:", e.getCause());
+                }
+                ModJarMetadata latestMeta = fetchLatestVersion(mod, mod.branch);
+                if (latestMeta == null || latestMeta.getChecksum().equals(currentMeta.getChecksum())) {
+                    return;
+                }
+                // Background updates must not pop up any windows while the game is already loading.
+                // Each one gets its own UI because those are not thread-safe, and updates of different mods may run
+                // concurrently.
+                LoaderUI ui = new LoaderLoggingUI().updatesEveryMillis(1000);
+                ui.start();
+                try {
+                    Path downloadedFile = update(mod, essentialFile, currentMeta, latestMeta, ui);
+                    if (downloadedFile != null) {
+                        Path stagedFile = mod.stageFile(downloadedFile, latestMeta);
+                        LOGGER.info("{} {} has been downloaded to {} and will be loaded on next boot.",
+                            mod, latestMeta.getVersion().getVersion(), stagedFile);
+                    }
+                } finally {
+                    ui.complete();
+                }
+            } catch (Throwable t) {
+                LOGGER.error("Failed to update " + mod + " in background:", t);
+            }
+        }, "Essential Loader Background Update (" + mod + ")");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private Path update(Mod mod, Path essentialFile, ModJarMetadata currentMeta, ModJarMetadata latestMeta, LoaderUI ui) throws IOException {
         // If we can, try fetching a diff first
         if (!currentMeta.getVersion().isUnknown()) {
-            Path updatedFile = updateViaDiff(mod, essentialFile, currentMeta, latestMeta);
+            Path updatedFile = updateViaDiff(mod, essentialFile, currentMeta, latestMeta, ui);
             if (updatedFile != null) {
                 return updatedFile;
             }
         }
 
         // Otherwise fall back to downloading the full file
-        Path downloadedFile = updateViaDownload(mod, latestMeta);
+        Path downloadedFile = updateViaDownload(mod, latestMeta, ui);
         if (downloadedFile == null) {
             LOGGER.warn("Unable to download {}, please check your internet connection. If the problem persists, please contact Essential Support.", mod);
         }
         return downloadedFile;
     }
 
-    private Path updateViaDiff(Mod mod, Path essentialFile, ModJarMetadata currentMeta, ModJarMetadata latestMeta) throws IOException {
-        if (!Objects.equals(currentMeta.getChecksum(), Checksum.getChecksum(essentialFile))) {
+    private Path updateViaDiff(Mod mod, Path essentialFile, ModJarMetadata currentMeta, ModJarMetadata latestMeta, LoaderUI ui) throws IOException {
+        if (!Objects.equals(currentMeta.getChecksum(), this.checksumCache.getChecksum(essentialFile))) {
             return null; // current file has unexpected hash (either corrupted, or from old stage2 version)
         }
 
@@ -518,19 +765,25 @@ public abstract class EssentialLoaderBase {
             return null; // no diff available
         }
 
-        Path downloadedFile = Files.createTempFile("essential-download-", "");
-        if (!downloadFile(mod, meta.url, downloadedFile, meta.checksum)) {
+        Path downloadedFile = createTempFile(mod);
+        if (!downloadFile(mod, meta.url, downloadedFile, meta.checksum, ui, false)) {
             return null; // failed to download diff
         }
 
-        Path patchedFile = Files.createTempFile("essential-patched-", "");
-        Files.copy(essentialFile, patchedFile, REPLACE_EXISTING);
+        Path patchedFile = createTempFile(mod);
         try {
-            DiffPatcher.apply(patchedFile, downloadedFile);
-            Files.delete(downloadedFile);
-
             String expected = latestMeta.getChecksum();
+            DiffPatcher.apply(essentialFile, downloadedFile, patchedFile, true);
             String actual = getChecksum(patchedFile);
+            if (!Objects.equals(expected, actual)) {
+                // Unchanged entries were copied as is, which only works if they were compressed the same way we would,
+                // so try again, this time compressing everything ourselves.
+                LOGGER.debug("Checksum of patched file did not match, re-trying with full re-compression.");
+                DiffPatcher.apply(essentialFile, downloadedFile, patchedFile, false);
+                actual = getChecksum(patchedFile);
+            }
+            Files.delete(downloadedFile);
+
             if (!Objects.equals(expected, actual)) {
                 throw new IOException("Excepted checksum of result to be " + expected + " but was " + actual);
             }
@@ -544,28 +797,45 @@ public abstract class EssentialLoaderBase {
         return patchedFile; // success
     }
 
-    private Path updateViaDownload(Mod mod, ModJarMetadata latestMeta) throws IOException {
+    /**
+     * Creates a temporary file in the data folder of the given mod, so downloaded and patched files can be moved into
+     * place (see {@link Mod#installFile}) without having to be copied across file systems.
+     * Leftovers are cleaned up by {@link #collectGarbage(List)}.
+     */
+    private static Path createTempFile(Mod mod) throws IOException {
+        return Files.createTempFile(mod.dataDir, "tmp-", "." + FILE_EXTENSION);
+    }
+
+    private Path updateViaDownload(Mod mod, ModJarMetadata latestMeta, LoaderUI ui) throws IOException {
         FileMeta meta = fetchDownloadUrl(latestMeta.getMod(), latestMeta.getVersion());
         if (meta == null) {
             return null; // no download available, this is bad
         }
 
-        Path downloadedFile = Files.createTempFile("essential-download-", "");
-        if (!downloadFile(mod, meta.url, downloadedFile, meta.checksum)) {
+        Path downloadedFile = createTempFile(mod);
+        if (!downloadFile(mod, meta.url, downloadedFile, meta.checksum, ui, true)) {
             return null; // failed to download file
         }
 
         return downloadedFile; // success
     }
 
-    private JsonObject fetchJsonObject(String endpoint, boolean allowEmpty) {
+    /**
+     * @param cacheable whether the response may be served from/stored in the {@link MetadataCache}; should only be
+     *                  used for version checks, not for download urls which may be short-lived
+     */
+    private JsonObject fetchJsonObject(String endpoint, boolean allowEmpty, boolean cacheable) {
         URLConnection connection = null;
         try {
             connection = this.prepareConnection(new URL(endpoint));
 
             String response;
-            try (final InputStream inputStream = connection.getInputStream()) {
-                response = IOUtils.toString(inputStream, Charset.defaultCharset());
+            if (cacheable) {
+                response = this.metadataCache.fetch(connection);
+            } else {
+                try (final InputStream inputStream = connection.getInputStream()) {
+                    response = IOUtils.toString(inputStream, Charset.defaultCharset());
+                }
             }
 
             JsonElement jsonElement = new JsonParser().parse(response);
@@ -579,13 +849,18 @@ public abstract class EssentialLoaderBase {
             return jsonElement.getAsJsonObject();
         } catch (final IOException | JsonParseException e) {
             LOGGER.error("Error occurred fetching " + endpoint + ": ", e);
-            logConnectionInfoOnError(connection);
+            Downloader.logConnectionInfoOnError(connection);
             return null;
         }
     }
 
     private ModJarMetadata fetchLatestVersion(Mod mod, String branch) {
-        JsonObject responseObject = fetchJsonObject(String.format(VERSION_URL, mod.id.getFullSlug(), branch, this.apiGameVersion), true);
+        BatchMetadataClient.Result batched = findBatchedMetadata(mod.id, branch);
+        if (batched != null) {
+            return batched.getLatest();
+        }
+
+        JsonObject responseObject = fetchJsonObject(String.format(VERSION_URL, mod.id.getFullSlug(), branch, this.apiGameVersion), true, true);
 
         if (responseObject == null) {
             LOGGER.warn("{} does not support the following game version: {}", mod, this.gameVersion);
@@ -608,15 +883,25 @@ public abstract class EssentialLoaderBase {
     }
 
     private FileMeta fetchDownloadUrl(ModId modId, ModVersion modVersion) {
+        BatchMetadataClient.Result batched = findBatchedMetadata(modId, modVersion);
+        if (batched != null && batched.getDownload() != null) {
+            return new FileMeta(batched.getDownload().getUrl(), batched.getDownload().getChecksum());
+        }
+
         return fetchFileMeta(String.format(DOWNLOAD_URL, modId.getFullSlug(), modVersion.getVersion(), this.apiGameVersion));
     }
 
     private FileMeta fetchDiffUrl(ModId modId, ModVersion oldVersion, ModVersion modVersion) {
+        BatchMetadataClient.Result batched = findBatchedMetadata(modId, modVersion);
+        if (batched != null && batched.getDiff(oldVersion) != null) {
+            return new FileMeta(batched.getDiff(oldVersion).getUrl(), batched.getDiff(oldVersion).getChecksum());
+        }
+
         return fetchFileMeta(String.format(DIFF_URL, modId.getFullSlug(), oldVersion.getVersion(), modVersion.getVersion(), this.apiGameVersion));
     }
 
     private FileMeta fetchFileMeta(String endpoint) {
-        JsonObject responseObject = fetchJsonObject(endpoint, false);
+        JsonObject responseObject = fetchJsonObject(endpoint, false, false);
 
         if (responseObject == null) {
             return null;
@@ -691,48 +976,25 @@ public abstract class EssentialLoaderBase {
         }
     }
 
-    protected Path getExtractedJarsRoot(Mod mod) {
-        return mod.dataDir
-            .resolve("libraries")
-            .resolve(gameVersion);
+    protected JarStore getJarStore() {
+        return jarStore;
     }
 
     private List<Path> extractJarsInJar(Mod mod, Path outerJar) throws IOException {
-        final Path extractedJarsRoot = getExtractedJarsRoot(mod);
-        Files.createDirectories(extractedJarsRoot);
-
-        final List<Path> extractedJars = new ArrayList<>();
-
-        try (FileSystem fileSystem = FileSystems.newFileSystem(outerJar, (ClassLoader) null)) {
+        try (RawZipFile zip = new RawZipFile(outerJar)) {
             // FIXME: For third-party mods we must not simply extract everything in this directory, fabric's JiJ may or
             //        may not use it as well and we should be handling both cases correctly
-            final Path innerJarsRoot = fileSystem.getPath("META-INF", "jars");
-            if (!Files.isDirectory(innerJarsRoot)) {
-                return extractedJars;
-            }
-            List<Path> innerJars;
-            try (Stream<Path> stream = Files.list(innerJarsRoot)) {
-                innerJars = stream.collect(Collectors.toList());
-            }
-            for (Path innerJar : innerJars) {
-                // For now, we'll assume that the file name is sufficiently unique of an identifier
-                final Path extractedJar = extractedJarsRoot.resolve(innerJar.getFileName().toString());
-                if (Files.exists(extractedJar)) {
-                    LOGGER.debug("Already extracted: {}", innerJar);
-                } else {
-                    LOGGER.debug("Extracting {} to {}", innerJar, extractedJar);
-                    // Copy to tmp jar first, so we do not leave behind incomplete jars
-                    final Path tmpJar = Files.createTempFile(extractedJarsRoot, "tmp", ".jar");
-                    Files.copy(innerJar, tmpJar, REPLACE_EXISTING);
-                    // Then (if successful) perform an atomic rename
-                    Files.move(tmpJar, extractedJar, StandardCopyOption.ATOMIC_MOVE);
+            final String innerJarsRoot = "META-INF/jars/";
+            final List<RawZipFile.Entry> innerJars = new ArrayList<>();
+            for (RawZipFile.Entry innerJar : zip.getEntries()) {
+                String name = innerJar.getName();
+                if (!name.startsWith(innerJarsRoot) || name.indexOf('/', innerJarsRoot.length()) != -1 || name.equals(innerJarsRoot)) {
+                    continue; // not a file directly in META-INF/jars
                 }
-                // Store the extracted path for later
-                extractedJars.add(extractedJar);
+                innerJars.add(innerJar);
             }
+            return jarStore.extractAll(zip, innerJars);
         }
-
-        return extractedJars;
     }
 
     protected abstract void loadPlatform();
@@ -789,18 +1051,24 @@ public abstract class EssentialLoaderBase {
         return new URI("jar:" + uri.getScheme(), uri.getHost(), uri.getPath(), uri.getFragment());
     }
 
-    private boolean downloadFile(final Mod mod, final URL url, final Path target, String expectedHash) throws IOException {
-        if (!this.attemptDownload(url, target)) {
+    /**
+     * @param segmented whether the file may be large enough to benefit from a segmented download
+     */
+    private boolean downloadFile(final Mod mod, final URL url, final Path target, String expectedHash, final LoaderUI ui, boolean segmented) throws IOException {
+        // Partial downloads are kept in this folder, so we can resume them if we fail half way through
+        final Path downloadsDir = mod.dataDir.resolve("downloads");
+        final String downloadedChecksum = segmented
+            ? this.downloader.downloadSegmented(url, target, expectedHash, downloadsDir, ui)
+            : this.downloader.download(url, target, expectedHash, downloadsDir, ui);
+        if (downloadedChecksum == null) {
             LOGGER.warn("Unable to download {}, please check your internet connection. If the problem persists, please contact Essential Support.", mod);
 
-            // Do not keep the file they downloaded if the download failed half way through
+            // Do not keep the (empty) target file around
             Files.deleteIfExists(target);
 
             return false;
         }
 
-        final String downloadedChecksum = getChecksum(target);
-
         if (downloadedChecksum.equals(expectedHash)) {
             return true;
         }
@@ -816,56 +1084,12 @@ public abstract class EssentialLoaderBase {
         return false;
     }
 
-    private boolean attemptDownload(final URL url, final Path target) {
-        URLConnection connection = null;
-        try {
-            connection = this.prepareConnection(url);
-            final int contentLength = connection.getContentLength();
-            this.ui.setDownloadSize(contentLength);
-
-            final long startTime = System.nanoTime();
-
-            int totalRead = 0;
-            try (
-                final InputStream inputStream = connection.getInputStream();
-                final OutputStream fileOutputStream = Files.newOutputStream(target)
-            ) {
-                final byte[] buffer = new byte[1024];
-
-                int read;
-                while ((read = inputStream.read(buffer)) > 0) {
-                    fileOutputStream.write(buffer, 0, read);
-                    totalRead += read;
-                    this.ui.setDownloaded(totalRead);
-                }
-
-                long endTime = System.nanoTime();
-                long millis = TimeUnit.NANOSECONDS.toMillis(endTime - startTime);
-                System.setProperty("essential.stage2.downloaded.bytes", String.valueOf(contentLength));
-                System.setProperty("essential.stage2.downloaded.millis", String.valueOf(millis));
-
-                return true;
-            }
-        } catch (final IOException e) {
-            LOGGER.error("Error occurred when downloading file '{}'.", url, e);
-            logConnectionInfoOnError(connection);
-            return false;
-        }
-    }
-
-    private void logConnectionInfoOnError(URLConnection connection) {
-        if (connection == null) {
-            return;
-        }
-        LOGGER.error("url: {}", connection.getURL());
-        LOGGER.error("cf-ray: {}", connection.getHeaderField("cf-ray"));
-    }
-
-    private Boolean showUpdatePrompt(ModJarMetadata newVersion) {
+    // Synchronized because mods are prepared concurrently but we only ever want to show one prompt at a time
+    private synchronized Boolean showUpdatePrompt(ModJarMetadata newVersion) {
         String description = "";
         try {
             JsonObject responseObject = fetchJsonObject(String.format(CHANGELOG_URL,
-                newVersion.getMod().getFullSlug(), newVersion.getVersion().getId()), false);
+                newVersion.getMod().getFullSlug(), newVersion.getVersion().getId()), false, false);
 
             if (responseObject != null) {
                 description = responseObject.get("summary").getAsString();
@@ -929,6 +1153,18 @@ public abstract class EssentialLoaderBase {
         }
     }
 
+    private static class PreparedMod {
+        ModJarMetadata meta;
+        Path file;
+        List<Path> innerJars;
+
+        public PreparedMod(ModJarMetadata meta, Path file, List<Path> innerJars) {
+            this.meta = meta;
+            this.file = file;
+            this.innerJars = innerJars;
+        }
+    }
+
     public class Mod {
         // Configurable via essential-loader.properties
         ModId id;
@@ -938,12 +1174,14 @@ public abstract class EssentialLoaderBase {
         ModVersion pinnedFileVersion;
         String branch;
         AutoUpdate autoUpdate;
+        boolean backgroundUpdate;
 
         // Internal to stage2
         Path dataDir;
         String fileBaseName;
         Path configFile;
         Properties config;
+        LoaderUI ui;
 
         String slug() {
             String publisherSlug = id.getPublisherSlug();
@@ -1026,14 +1264,36 @@ public abstract class EssentialLoaderBase {
                 return null;
             }
 
-            Path downloadedFile = Files.createTempFile("essential-extract-", "");
-            if (!downloadFile(this, url, downloadedFile, pinnedFileMd5)) {
+            Path downloadedFile = createTempFile(this);
+            if (!downloadFile(this, url, downloadedFile, pinnedFileMd5, ui, false)) {
                 return null;
             }
 
             return installFile(destinationFile, downloadedFile, pinnedFileMeta());
         }
 
+        /**
+         * Installs the given file such that it will be picked up on next boot, without touching the file which is
+         * currently in use.
+         */
+        Path stageFile(Path sourceFile, ModJarMetadata metadata) throws IOException {
+            // Move into our data folder first, so the final rename can be atomic
+            Path tmpFile = Files.createTempFile(dataDir, "tmp-", "." + FILE_EXTENSION);
+            try {
+                Files.move(sourceFile, tmpFile, REPLACE_EXISTING);
+
+                Path destinationFile = findNextMostRecentFile(dataDir, fileBaseName, FILE_EXTENSION);
+                // Meta file goes first, the jar only becomes visible once it is complete
+                Files.deleteIfExists(ModJarMetadata.metaFilePath(destinationFile));
+                metadata.writeToMetaFile(destinationFile);
+                Files.move(tmpFile, destinationFile, StandardCopyOption.ATOMIC_MOVE);
+
+                return destinationFile;
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        }
+
         public boolean isPinnedVersionMoreRecentThan(ModVersion version) {
             if (pinnedFileVersion == null) return false;
             if (pinnedFileVersion.getVersion() == null) return false;
@@ -0,0 +1,277 @@
+package gg.essential.loader.stage2.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import gg.essential.loader.stage2.data.ModId;
+import gg.essential.loader.stage2.data.ModJarMetadata;
+import gg.essential.loader.stage2.data.ModVersion;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Resolves the latest version, checksum, download url and diff url for multiple mods with a single request.
+ * <p>
+ * The request is a POST of the following form to the batch endpoint:
+ * <pre>{@code
+ * {
+ *   "platform": "1-12-2",
+ *   "deltas": true,
+ *   "mods": [
+ *     { "mod": "essential:essential", "branch": "stable", "currentVersion": "1.2.0.12" }
+ *   ]
+ * }
+ * }</pre>
+ * where {@code currentVersion} is optional and only used to determine the diff, and {@code deltas} indicates that the
+ * diff may contain binary deltas (see {@link gg.essential.loader.stage2.diff.DiffPatcher}).
+ * The response is expected to look like:
+ * <pre>{@code
+ * {
+ *   "mods": [
+ *     {
+ *       "mod": "essential:essential", "branch": "stable",
+ *       "id": "...", "version": "1.2.0.13", "checksum": "...",
+ *       "download": { "url": "...", "checksum": "..." },
+ *       "diff": { "from": "1.2.0.12", "url": "...", "checksum": "..." }
+ *     }
+ *   ]
+ * }
+ * }</pre>
+ * Any mod (or part thereof) missing from the response should be fetched via the regular per-mod endpoints.
+ * If the server does not support the batch endpoint at all, {@link #fetch(List)} returns {@code null}.
+ */
+public class BatchMetadataClient {
+    private static final Logger LOGGER = LogManager.getLogger(BatchMetadataClient.class);
+
+    private final URL endpoint;
+    private final String platform;
+
+    public BatchMetadataClient(URL endpoint, String platform) {
+        this.endpoint = endpoint;
+        this.platform = platform;
+    }
+
+    /**
+     * @return the results by request, or {@code null} if the batch endpoint is not available
+     */
+    public Map<Request, Result> fetch(List<Request> requests) {
+        JsonObject requestObject = new JsonObject();
+        requestObject.addProperty("platform", platform);
+        requestObject.addProperty("deltas", true);
+        JsonArray modsArray = new JsonArray();
+        for (Request request : requests) {
+            JsonObject modObject = new JsonObject();
+            modObject.addProperty("mod", request.mod.getFullSlug());
+            modObject.addProperty("branch", request.branch);
+            if (request.currentVersion != null) {
+                modObject.addProperty("currentVersion", request.currentVersion.getVersion());
+            }
+            modsArray.add(modObject);
+        }
+        requestObject.add("mods", modsArray);
+
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) endpoint.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(30_000);
+            connection.setReadTimeout(30_000);
+            connection.setDoOutput(true);
+            connection.addRequestProperty("User-Agent", "Mozilla/5.0 (Essential Initializer)");
+            connection.addRequestProperty("Content-Type", "application/json");
+
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(requestObject.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                LOGGER.debug("Batch metadata endpoint {} responded with {}, falling back to individual requests.", endpoint, status);
+                return null;
+            }
+
+            String response;
+            try (InputStream in = connection.getInputStream()) {
+                response = IOUtils.toString(in, StandardCharsets.UTF_8);
+            }
+
+            JsonElement responseElement = new JsonParser().parse(response);
+            if (!responseElement.isJsonObject()) {
+                throw new IOException("Excepted json object, got " + response);
+            }
+            return parse(requests, responseElement.getAsJsonObject());
+        } catch (IOException | JsonParseException | ClassCastException | IllegalStateException e) {
+            LOGGER.warn("Failed to fetch batched metadata from " + endpoint + ", falling back to individual requests:", e);
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private Map<Request, Result> parse(List<Request> requests, JsonObject responseObject) {
+        Map<String, Request> requestsByKey = new HashMap<>();
+        for (Request request : requests) {
+            requestsByKey.put(request.mod.getFullSlug() + "@" + request.branch, request);
+        }
+
+        Map<Request, Result> results = new HashMap<>();
+        JsonElement modsElement = responseObject.get("mods");
+        if (modsElement == null || !modsElement.isJsonArray()) {
+            return results;
+        }
+        for (JsonElement modElement : modsElement.getAsJsonArray()) {
+            if (!modElement.isJsonObject()) {
+                continue;
+            }
+            JsonObject modObject = modElement.getAsJsonObject();
+
+            Request request = requestsByKey.get(getString(modObject, "mod") + "@" + getString(modObject, "branch"));
+            if (request == null) {
+                continue; // not something we asked for
+            }
+
+            String id = getString(modObject, "id");
+            String version = getString(modObject, "version");
+            String checksum = getString(modObject, "checksum");
+            if (StringUtils.isEmpty(id) || StringUtils.isEmpty(version)) {
+                continue;
+            }
+
+            ModJarMetadata latest = new ModJarMetadata(request.mod, new ModVersion(id, version), platform, checksum);
+            FileInfo download = parseFileInfo(modObject.get("download"));
+            FileInfo diff = parseFileInfo(modObject.get("diff"));
+            String diffFrom = diff != null ? getString(modObject.getAsJsonObject("diff"), "from") : null;
+            if (diffFrom == null) {
+                diff = null; // cannot know which version it applies to
+            }
+
+            results.put(request, new Result(latest, download, diffFrom, diff));
+        }
+        return results;
+    }
+
+    private static FileInfo parseFileInfo(JsonElement element) {
+        if (element == null || !element.isJsonObject()) {
+            return null;
+        }
+        JsonObject object = element.getAsJsonObject();
+        String url = getString(object, "url");
+        String checksum = getString(object, "checksum");
+        if (StringUtils.isEmpty(url) || StringUtils.isEmpty(checksum)) {
+            return null;
+        }
+        try {
+            return new FileInfo(new URL(url), checksum);
+        } catch (MalformedURLException e) {
+            LOGGER.error("Received invalid url `" + url + "`:", e);
+            return null;
+        }
+    }
+
+    private static String getString(JsonObject object, String key) {
+        JsonElement element = object.get(key);
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
+    public static class Request {
+        private final ModId mod;
+        private final String branch;
+        private final ModVersion currentVersion;
+
+        public Request(ModId mod, String branch, ModVersion currentVersion) {
+            this.mod = mod;
+            this.branch = branch;
+            this.currentVersion = currentVersion;
+        }
+
+        public ModId getMod() {
+            return mod;
+        }
+
+        public String getBranch() {
+            return branch;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Request request = (Request) o;
+            return mod.equals(request.mod) && Objects.equals(branch, request.branch) && Objects.equals(currentVersion, request.currentVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mod, branch, currentVersion);
+        }
+    }
+
+    public static class Result {
+        private final ModJarMetadata latest;
+        private final FileInfo download;
+        private final String diffFrom;
+        private final FileInfo diff;
+
+        public Result(ModJarMetadata latest, FileInfo download, String diffFrom, FileInfo diff) {
+            this.latest = latest;
+            this.download = download;
+            this.diffFrom = diffFrom;
+            this.diff = diff;
+        }
+
+        public ModJarMetadata getLatest() {
+            return latest;
+        }
+
+        /**
+         * @return the download for {@link #getLatest()}, or {@code null} if not included in the response
+         */
+        public FileInfo getDownload() {
+            return download;
+        }
+
+        /**
+         * @return the diff from the given version to {@link #getLatest()}, or {@code null} if not included in the
+         * response
+         */
+        public FileInfo getDiff(ModVersion from) {
+            return diff != null && diffFrom.equals(from.getVersion()) ? diff : null;
+        }
+    }
+
+    public static class FileInfo {
+        private final URL url;
+        private final String checksum;
+
+        public FileInfo(URL url, String checksum) {
+            this.url = url;
+            this.checksum = checksum;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+    }
+}
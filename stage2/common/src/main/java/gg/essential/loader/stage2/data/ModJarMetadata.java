@@ -1,6 +1,6 @@
 package gg.essential.loader.stage2.data;
 
-import gg.essential.loader.stage2.util.Checksum;
+import gg.essential.loader.stage2.util.ChecksumCache;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
@@ -137,7 +137,7 @@ public class ModJarMetadata {
         return metadata;
     }
 
-    public static ModJarMetadata readFromJarFile(Path jarFile) throws IOException {
+    public static ModJarMetadata readFromJarFile(Path jarFile, ChecksumCache checksumCache) throws IOException {
         ModJarMetadata metadata = ModJarMetadata.EMPTY;
         try (FileSystem fileSystem = FileSystems.newFileSystem(jarFile, (ClassLoader) null)) {
             Path manifestPath = fileSystem.getPath("META-INF", "MANIFEST.MF");
@@ -148,7 +148,7 @@ public class ModJarMetadata {
             }
         }
         if (metadata.getChecksum() == null) {
-            String checksum = Checksum.getChecksum(jarFile);
+            String checksum = checksumCache.getChecksum(jarFile);
             metadata = new ModJarMetadata(metadata.mod, metadata.version, metadata.platform, checksum);
         }
         return metadata;
@@ -0,0 +1,82 @@
+package gg.essential.loader.stage2.diff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Applies a binary delta to the content of a single entry.
+ *
+ * The delta format is a simple VCDIFF-like instruction stream (all numbers are big-endian):
+ * - a header consisting of the magic number {@link #MAGIC}, the CRC32 and size of the source, and the size of the result
+ * - a sequence of instructions, each starting with a one byte opcode:
+ *   - {@link #OP_COPY}, followed by an offset and length, copies the given range of the source to the result
+ *   - {@link #OP_ADD}, followed by a length and that many bytes, appends the given bytes to the result
+ *   - {@link #OP_END} marks the end of the delta
+ */
+public class DeltaPatcher {
+    public static final int MAGIC = 0x45444c54; // "EDLT"
+    public static final int OP_END = 0;
+    public static final int OP_COPY = 1;
+    public static final int OP_ADD = 2;
+
+    public static byte[] apply(byte[] source, InputStream deltaStream) throws IOException {
+        DataInputStream delta = new DataInputStream(deltaStream);
+        if (delta.readInt() != MAGIC) {
+            throw new IOException("Invalid delta: bad magic number");
+        }
+        int sourceCrc = delta.readInt();
+        int sourceSize = delta.readInt();
+        int targetSize = delta.readInt();
+
+        CRC32 crc = new CRC32();
+        crc.update(source, 0, source.length);
+        if (source.length != sourceSize || (int) crc.getValue() != sourceCrc) {
+            throw new IOException("Delta does not apply: source does not match");
+        }
+        if (targetSize < 0) {
+            throw new IOException("Invalid delta: negative target size");
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(targetSize);
+        byte[] buf = new byte[8192];
+        while (true) {
+            int op = delta.read();
+            if (op == OP_END) {
+                break;
+            } else if (op == OP_COPY) {
+                int offset = delta.readInt();
+                int length = delta.readInt();
+                if (offset < 0 || length < 0 || offset > source.length - length || length > targetSize - result.size()) {
+                    throw new IOException("Invalid delta: copy out of bounds");
+                }
+                result.write(source, offset, length);
+            } else if (op == OP_ADD) {
+                int length = delta.readInt();
+                if (length < 0 || length > targetSize - result.size()) {
+                    throw new IOException("Invalid delta: add out of bounds");
+                }
+                while (length > 0) {
+                    int n = delta.read(buf, 0, Math.min(buf.length, length));
+                    if (n < 0) {
+                        throw new EOFException("Invalid delta: unexpected end");
+                    }
+                    result.write(buf, 0, n);
+                    length -= n;
+                }
+            } else if (op == -1) {
+                throw new EOFException("Invalid delta: unexpected end");
+            } else {
+                throw new IOException("Invalid delta: unknown opcode " + op);
+            }
+        }
+
+        if (result.size() != targetSize) {
+            throw new IOException("Invalid delta: expected " + targetSize + " bytes but got " + result.size());
+        }
+        return result.toByteArray();
+    }
+}
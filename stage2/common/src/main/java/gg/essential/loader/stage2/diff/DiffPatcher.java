@@ -1,127 +1,185 @@
 package gg.essential.loader.stage2.diff;
 
-import gg.essential.loader.stage2.util.Delete;
+import gg.essential.loader.stage2.util.DeterministicZipWriter;
+import gg.essential.loader.stage2.util.RawZipFile;
 import org.apache.commons.io.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
+import java.io.InputStream;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
-import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 /**
- * Applies diffs in the form of a zip file to a given target archive file.
+ * Applies diffs in the form of a zip file to a given source archive file, writing the result to a target file.
  *
  * The layout of the zip file is fairly simple and determines how patching works:
  * - Files from the "+" directory are added to the target archive (overwriting any existing entries)
  * - Files from the "~" directory replace the corresponding entry in the target archive
  * - Files from the "-" directory are removed from the target archive
+ * - Files from the "%" directory are binary deltas (see {@link DeltaPatcher}) which are applied to the content of the
+ *   corresponding existing entry in the target archive
  *
  * The differences between "+" and "~" is purely for aesthetics, they are actually applied identically.
+ * The "%" directory is optional, servers may use it for entries where the delta is considerably smaller than the
+ * whole entry.
+ *
+ * Patching only reads the central directory of the source archive to build the list of resulting entries and then
+ * writes the result in a single pass, sorted by name and with constant timestamps, such that it is identical to what
+ * the server produced. Unchanged entries are copied with their existing compressed data (if {@code copyRaw} is set),
+ * which is only identical if the source archive was compressed the same way, so callers should verify the result and
+ * retry without {@code copyRaw} if it does not match.
  */
 public class DiffPatcher {
-    public static void apply(Path targetFile, Path diffFile) throws IOException {
-        try (FileSystem targetFileSystem = FileSystems.newFileSystem(targetFile, (ClassLoader) null)) {
-            try (FileSystem diffFileSystem = FileSystems.newFileSystem(diffFile, (ClassLoader) null)) {
-                walk(diffFileSystem.getPath("/-"), targetFileSystem, DiffPatcher::remove);
-                walk(diffFileSystem.getPath("/~"), targetFileSystem, DiffPatcher::add);
-                walk(diffFileSystem.getPath("/+"), targetFileSystem, DiffPatcher::add);
+    public static void apply(Path sourceFile, Path diffFile, Path targetFile, boolean copyRaw) throws IOException {
+        try (RawZipFile source = new RawZipFile(sourceFile);
+             ZipFile diff = new ZipFile(diffFile.toFile())) {
+            // Maps entry names (with trailing slash for directories) to their content, which is either an unchanged
+            // RawZipFile.Entry, a ZipEntry from the diff, a Delta, or `null` for a new, empty directory
+            TreeMap<String, Object> entries = new TreeMap<>();
+            for (RawZipFile.Entry entry : source.getEntries()) {
+                entries.put(entry.getName(), entry);
+            }
+
+            for (ZipEntry entry : diffEntries(diff, "-/")) {
+                remove(entries, entry.getName().substring(2));
+            }
+            for (ZipEntry entry : diffEntries(diff, "%/")) {
+                String path = entry.getName().substring(2);
+                Object existing = entries.get(path);
+                if (!(existing instanceof RawZipFile.Entry)) {
+                    throw new IOException("Cannot apply delta to missing entry " + path);
+                }
+                entries.put(path, new Delta((RawZipFile.Entry) existing, entry));
+            }
+            for (ZipEntry entry : diffEntries(diff, "~/")) {
+                add(entries, entry.getName().substring(2), entry);
+            }
+            for (ZipEntry entry : diffEntries(diff, "+/")) {
+                add(entries, entry.getName().substring(2), entry);
+            }
+
+            try (DeterministicZipWriter out = new DeterministicZipWriter(targetFile)) {
+                for (Map.Entry<String, Object> mapEntry : entries.entrySet()) {
+                    String name = mapEntry.getKey();
+                    Object value = mapEntry.getValue();
+                    if (value == null) {
+                        out.writeDirectory(name);
+                    } else if (value instanceof Delta) {
+                        Delta delta = (Delta) value;
+                        byte[] content;
+                        try (InputStream sourceIn = source.getInputStream(delta.source);
+                             InputStream deltaIn = diff.getInputStream(delta.delta)) {
+                            content = DeltaPatcher.apply(IOUtils.toByteArray(sourceIn), deltaIn);
+                        } catch (IOException e) {
+                            throw new IOException("Failed to apply delta to " + name, e);
+                        }
+                        out.write(name, new ByteArrayInputStream(content));
+                    } else if (value instanceof ZipEntry) {
+                        try (InputStream in = diff.getInputStream((ZipEntry) value)) {
+                            out.write(name, in);
+                        }
+                    } else if (copyRaw) {
+                        out.copyRaw(name, source, (RawZipFile.Entry) value);
+                    } else {
+                        try (InputStream in = source.getInputStream((RawZipFile.Entry) value)) {
+                            out.write(name, in);
+                        }
+                    }
+                }
             }
         }
-        stripNonDeterminism(targetFile);
     }
 
-    private static void add(Path diffPath, Path targetPath) throws IOException {
-        if (Files.exists(targetPath)) {
-            Delete.recursively(targetPath);
-        }
-        Path parent = targetPath.getParent();
-        if (parent != null) {
-            Files.createDirectories(parent);
+    /**
+     * Returns all regular file entries in the given diff directory, sorted by name.
+     */
+    private static List<ZipEntry> diffEntries(ZipFile diff, String prefix) {
+        List<ZipEntry> result = new ArrayList<>();
+        for (ZipEntry entry : Collections.list(diff.entries())) {
+            String name = entry.getName();
+            if (name.startsWith(prefix) && name.length() > prefix.length() && !entry.isDirectory()) {
+                result.add(entry);
+            }
         }
-        Files.copy(diffPath, targetPath);
+        result.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return result;
     }
 
-    private static void remove(Path diffPath, Path targetPath) throws IOException {
-        if (Files.exists(targetPath)) {
-            Delete.recursively(targetPath);
-
-            // Now that we've deleted this entry, check if the parent has any other children
-            Path parent = targetPath.getParent();
-            if (parent != null && !hasChildren(parent)) {
-                // if it doesn't (and isn't the root), then it can be cleaned up as well
-                remove(diffPath, parent);
-            }
+    private static void add(TreeMap<String, Object> entries, String path, ZipEntry diffEntry) {
+        if (exists(entries, path)) {
+            delete(entries, path);
         }
+        createDirectories(entries, parent(path));
+        entries.put(path, diffEntry);
     }
 
-    /**
-     * Traverses the give diff directory tree calling the patcher function for every regular file entry in the tree.
-     */
-    private static void walk(Path diffRoot, FileSystem targetFileSystem, PatchingFunction patcher) throws IOException {
-        if (!Files.exists(diffRoot)) {
+    private static void remove(TreeMap<String, Object> entries, String path) {
+        if (!exists(entries, path)) {
             return;
         }
-        try (Stream<Path> stream = Files.walk(diffRoot)) {
-            for (Path diffPath : (Iterable<Path>) stream::iterator) {
-                if (!Files.isRegularFile(diffPath)) {
-                    continue;
-                }
-                String relativePath = diffRoot.relativize(diffPath).toString();
-                Path targetPath = targetFileSystem.getPath(relativePath);
-                patcher.apply(diffPath, targetPath);
-            }
+        delete(entries, path);
+
+        // Now that we've deleted this entry, check if the parent has any other children
+        String parent = parent(path);
+        while (parent != null && !hasChildren(entries, parent)) {
+            // if it doesn't (and isn't the root), then it can be cleaned up as well
+            entries.remove(parent + "/");
+            parent = parent(parent);
         }
     }
 
-    private static boolean hasChildren(Path dir) throws IOException {
-        try (Stream<Path> stream = Files.list(dir)) {
-            return stream.findAny().isPresent();
+    private static void createDirectories(TreeMap<String, Object> entries, String path) {
+        if (path == null || exists(entries, path)) {
+            return;
         }
+        createDirectories(entries, parent(path));
+        entries.put(path + "/", null);
     }
 
-    private static void stripNonDeterminism(Path path) throws IOException {
-        Path tmpPath = Files.createTempFile(path.getParent(), "tmp", ".jar");
-        try {
-            try (OutputStream fileOut = Files.newOutputStream(tmpPath, StandardOpenOption.TRUNCATE_EXISTING);
-                 ZipOutputStream zipOut = new ZipOutputStream(fileOut);
-                 ZipFile zipIn = new ZipFile(path.toFile())) {
-                List<? extends ZipEntry> entries = Collections.list(zipIn.entries());
-                entries.sort(Comparator.comparing(ZipEntry::getName));
-                for (ZipEntry entry : entries) {
-                    ZipEntry newEntry = new ZipEntry(entry.getName());
-                    newEntry.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
-                    zipOut.putNextEntry(newEntry);
-                    IOUtils.copy(zipIn.getInputStream(entry), zipOut);
-                }
-            }
-            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
-        } finally {
-            Files.deleteIfExists(tmpPath);
-        }
+    /**
+     * Deletes the given file or directory, including all of its children.
+     */
+    private static void delete(TreeMap<String, Object> entries, String path) {
+        entries.remove(path);
+        children(entries, path, true).clear();
     }
 
-    // A safe, constant value for creating consistent zip entries
-    // From: https://github.com/gradle/gradle/blob/d6c7fd470449a59fc57a26b4ebc0ad83c64af50a/subprojects/core/src/main/java/org/gradle/api/internal/file/archive/ZipCopyAction.java#L42-L57
-    private static final long CONSTANT_TIME_FOR_ZIP_ENTRIES = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+    private static boolean exists(TreeMap<String, Object> entries, String path) {
+        return entries.containsKey(path) || !children(entries, path, true).isEmpty();
+    }
 
-    @FunctionalInterface
-    private interface PatchingFunction {
-        /**
-         * Applies a given patch file from the diff jar to the given corresponding target file in the target archive.
-         */
-        void apply(Path patch, Path target) throws IOException;
+    private static boolean hasChildren(TreeMap<String, Object> entries, String path) {
+        return !children(entries, path, false).isEmpty();
+    }
+
+    /**
+     * Returns a view of all entries below the given directory, optionally including the directory entry itself.
+     */
+    private static NavigableMap<String, Object> children(TreeMap<String, Object> entries, String path, boolean inclusive) {
+        // '0' is the character right after '/', so this range covers exactly the names starting with `path + "/"`
+        return entries.subMap(path + "/", inclusive, path + "0", false);
+    }
+
+    private static String parent(String path) {
+        int index = path.lastIndexOf('/');
+        return index == -1 ? null : path.substring(0, index);
+    }
+
+    private static class Delta {
+        private final RawZipFile.Entry source;
+        private final ZipEntry delta;
+
+        private Delta(RawZipFile.Entry source, ZipEntry delta) {
+            this.source = source;
+            this.delta = delta;
+        }
     }
 }
@@ -0,0 +1,397 @@
+package gg.essential.loader.stage2.download;
+
+import gg.essential.loader.stage2.LoaderUI;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads files while computing their MD5 checksum as the bytes stream through, so the downloaded file does not need
+ * to be read a second time for verification.
+ * <p>
+ * Downloads are first written to a {@code <checksum>.part} file in the given downloads folder, next to a
+ * {@code <checksum>.part.meta} file which records the expected checksum and size. If a download is interrupted, the
+ * partial file is kept and the next attempt to download a file with the same checksum will try to continue where the
+ * previous one left off via an HTTP Range request. If the server does not honor the Range request, the download
+ * simply starts over. Stage1 uses the same layout and format for its own downloads (keep the two in sync).
+ * <p>
+ * Large files may optionally be {@link #downloadSegmented downloaded in segments} over multiple parallel connections.
+ * The amount of connections is configured via the {@code essential.loader.download.connections} system property and
+ * defaults to 1, i.e. no segmented downloads.
+ */
+public class Downloader {
+    private static final Logger LOGGER = LogManager.getLogger(Downloader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String KEY_CHECKSUM = "checksum";
+    private static final String KEY_SIZE = "size";
+
+    /** MD5 checksums as sent by the server, in hex. */
+    private static final Pattern CHECKSUM_PATTERN = Pattern.compile("[0-9a-fA-F]{32}");
+
+    /** Files smaller than this are always downloaded with a single connection. */
+    static final long SEGMENTED_THRESHOLD = 4 * 1024 * 1024;
+    /** Segments are never smaller than this, even if that means we will not use all the allowed connections. */
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private final ConnectionFactory connectionFactory;
+    private final int connections;
+
+    public Downloader(ConnectionFactory connectionFactory) {
+        this(connectionFactory, Integer.getInteger("essential.loader.download.connections", 1));
+    }
+
+    public Downloader(ConnectionFactory connectionFactory, int connections) {
+        this.connectionFactory = connectionFactory;
+        this.connections = connections;
+    }
+
+    /**
+     * Downloads the given url to the given target file.
+     *
+     * @param expectedChecksum the MD5 checksum which the file is expected to have, used to identify partial downloads
+     * @param downloadsDir folder in which partial downloads are kept
+     * @return the MD5 checksum of the downloaded file, or {@code null} if the download failed
+     */
+    public String download(URL url, Path target, String expectedChecksum, Path downloadsDir, LoaderUI ui) {
+        // The checksum comes from the server and is used in file names below, so make sure it is what it claims to be
+        if (!isValidChecksum(expectedChecksum)) {
+            LOGGER.error("Received invalid checksum `{}` for {}", expectedChecksum, url);
+            return null;
+        }
+
+        URLConnection connection = null;
+        try {
+            Files.createDirectories(downloadsDir);
+            final Path partFile = downloadsDir.resolve(expectedChecksum + ".part");
+            final Path partMetaFile = downloadsDir.resolve(expectedChecksum + ".part.meta");
+
+            final MessageDigest digest = DigestUtils.getMd5Digest();
+            long offset = resumableOffset(partFile, partMetaFile, expectedChecksum);
+
+            connection = this.connectionFactory.open(url);
+            if (offset > 0 && connection instanceof HttpURLConnection) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+            if (offset > 0 && !isResumed(connection, offset)) {
+                LOGGER.debug("Server did not honor range request for {}, starting from scratch.", url);
+                offset = 0;
+            }
+            if (offset > 0) {
+                LOGGER.info("Resuming download of {} at {}KB", url, offset / 1024);
+                updateDigest(digest, partFile, offset);
+            }
+
+            final long contentLength = connection.getContentLengthLong();
+            final long totalSize = contentLength < 0 ? -1 : offset + contentLength;
+            writePartMeta(partMetaFile, expectedChecksum, totalSize);
+            ui.setDownloadSize((int) Math.min(totalSize, Integer.MAX_VALUE));
+
+            final long startTime = System.nanoTime();
+
+            StandardOpenOption mode = offset > 0 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+            try (
+                final InputStream inputStream = connection.getInputStream();
+                final OutputStream outputStream = Files.newOutputStream(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)
+            ) {
+                transfer(inputStream, outputStream, digest, offset, ui);
+            }
+
+            long endTime = System.nanoTime();
+            long millis = TimeUnit.NANOSECONDS.toMillis(endTime - startTime);
+            // Including the part we resumed from, so this matches the size of the file
+            System.setProperty("essential.stage2.downloaded.bytes", String.valueOf(Files.size(partFile)));
+            System.setProperty("essential.stage2.downloaded.millis", String.valueOf(millis));
+
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(partMetaFile);
+
+            return Hex.encodeHexString(digest.digest());
+        } catch (final IOException e) {
+            LOGGER.error("Error occurred when downloading file '{}'.", url, e);
+            logConnectionInfoOnError(connection);
+            return null;
+        }
+    }
+
+    /**
+     * Same as {@link #download(URL, Path, String, Path, LoaderUI)} but for large files splits the download into
+     * multiple segments which are fetched in parallel (if enabled and supported by the server).
+     * <p>
+     * Segments are written directly to their final position in a pre-allocated file, which is then verified as a whole
+     * (no streaming checksum, given the segments arrive out of order). Segmented downloads cannot be resumed, if one
+     * segment fails, the whole file is downloaded again via a regular download. If the server does not support range
+     * requests, this falls back to a regular download right away.
+     */
+    public String downloadSegmented(URL url, Path target, String expectedChecksum, Path downloadsDir, LoaderUI ui) {
+        if (!isValidChecksum(expectedChecksum)) {
+            LOGGER.error("Received invalid checksum `{}` for {}", expectedChecksum, url);
+            return null;
+        }
+        if (this.connections <= 1) {
+            return download(url, target, expectedChecksum, downloadsDir, ui);
+        }
+
+        URLConnection connection = null;
+        long totalSize;
+        try {
+            // Probe whether the server supports range requests, and how large the file is
+            connection = this.connectionFactory.open(url);
+            if (!(connection instanceof HttpURLConnection)) {
+                return download(url, target, expectedChecksum, downloadsDir, ui);
+            }
+            connection.setRequestProperty("Range", "bytes=0-0");
+            totalSize = parseTotalSize(connection);
+            ((HttpURLConnection) connection).disconnect();
+        } catch (IOException e) {
+            LOGGER.error("Error occurred when probing file '{}'.", url, e);
+            logConnectionInfoOnError(connection);
+            return null;
+        }
+        if (totalSize < SEGMENTED_THRESHOLD) {
+            LOGGER.debug("Not using segmented download for {} (size: {})", url, totalSize);
+            return download(url, target, expectedChecksum, downloadsDir, ui);
+        }
+
+        int segments = (int) Math.max(1, Math.min(this.connections, totalSize / MIN_SEGMENT_SIZE));
+        long segmentSize = (totalSize + segments - 1) / segments;
+        LOGGER.debug("Downloading {} ({} bytes) in {} segments", url, totalSize, segments);
+
+        final long startTime = System.nanoTime();
+        ui.setDownloadSize((int) Math.min(totalSize, Integer.MAX_VALUE));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(segments, runnable -> {
+            Thread thread = new Thread(runnable, "Essential Loader Download Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(downloadsDir);
+            Path tmpFile = Files.createTempFile(downloadsDir, "segmented-", ".part");
+            try {
+                AtomicLong downloaded = new AtomicLong();
+                try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+                    // Pre-allocate the file so all segments can be written at their final position right away
+                    channel.write(ByteBuffer.wrap(new byte[1]), totalSize - 1);
+
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (long start = 0; start < totalSize; start += segmentSize) {
+                        long end = Math.min(start + segmentSize, totalSize) - 1;
+                        long segmentStart = start;
+                        futures.add(executor.submit(() -> {
+                            downloadSegment(url, channel, segmentStart, end, bytes -> {
+                                long total = downloaded.addAndGet(bytes);
+                                synchronized (ui) {
+                                    ui.setDownloaded((int) Math.min(total, Integer.MAX_VALUE));
+                                }
+                            });
+                            return null;
+                        }));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+                }
+
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                System.setProperty("essential.stage2.downloaded.bytes", String.valueOf(totalSize));
+                System.setProperty("essential.stage2.downloaded.millis", String.valueOf(millis));
+
+                String checksum;
+                try (InputStream in = Files.newInputStream(tmpFile)) {
+                    checksum = DigestUtils.md5Hex(in);
+                }
+                Files.move(tmpFile, target, StandardCopyOption.REPLACE_EXISTING);
+                return checksum;
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } catch (IOException | ExecutionException e) {
+            // Some servers answer the probe just fine but then reject or throttle parallel ranges, so rather than
+            // failing the whole update, try again with a single connection
+            LOGGER.warn("Segmented download of '{}' failed, falling back to a single connection.", url, e instanceof ExecutionException ? e.getCause() : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            executor.shutdownNow();
+        }
+        return download(url, target, expectedChecksum, downloadsDir, ui);
+    }
+
+    /**
+     * Returns the total size of the file from the response to a range request, or -1 if the server did not respond
+     * with a valid partial response.
+     */
+    private static long parseTotalSize(URLConnection connection) throws IOException {
+        if (((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+            return -1;
+        }
+        // Content-Range: bytes 0-0/5679
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null) {
+            return -1;
+        }
+        int separator = contentRange.lastIndexOf('/');
+        try {
+            return Long.parseLong(contentRange.substring(separator + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1; // unknown total size ("*")
+        }
+    }
+
+    private void downloadSegment(URL url, FileChannel channel, long start, long end, LongConsumer progress) throws IOException {
+        URLConnection connection = null;
+        try {
+            connection = this.connectionFactory.open(url);
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            if (((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server did not respond with partial content for range " + start + "-" + end);
+            }
+            String contentRange = connection.getHeaderField("Content-Range");
+            if (contentRange == null || !contentRange.startsWith("bytes " + start + "-" + end + "/")) {
+                throw new IOException("Server responded with unexpected range " + contentRange + " for " + start + "-" + end);
+            }
+
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long position = start;
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer, 0, (int) Math.min(buffer.length, end + 1 - position))) > 0) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                    while (byteBuffer.hasRemaining()) {
+                        position += channel.write(byteBuffer, position);
+                    }
+                    progress.accept(read);
+                }
+            }
+            if (position != end + 1) {
+                throw new IOException("Segment " + start + "-" + end + " ended prematurely at " + position);
+            }
+        } catch (IOException e) {
+            logConnectionInfoOnError(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the amount of bytes of a previous partial download which can be re-used, or 0 if there is no such
+     * download.
+     */
+    private static long resumableOffset(Path partFile, Path partMetaFile, String expectedChecksum) {
+        if (!Files.exists(partFile) || !Files.exists(partMetaFile)) {
+            return 0;
+        }
+        try {
+            Properties meta = new Properties();
+            try (InputStream in = Files.newInputStream(partMetaFile)) {
+                meta.load(in);
+            }
+            if (!expectedChecksum.equals(meta.getProperty(KEY_CHECKSUM))) {
+                return 0;
+            }
+            long expectedSize = Long.parseLong(meta.getProperty(KEY_SIZE, "-1"));
+            long size = Files.size(partFile);
+            if (expectedSize < 0 || size >= expectedSize) {
+                return 0; // cannot tell whether the file is valid, better start over
+            }
+            return size;
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Failed to read partial download metadata at " + partMetaFile + ":", e);
+            return 0;
+        }
+    }
+
+    private static boolean isValidChecksum(String checksum) {
+        return checksum != null && CHECKSUM_PATTERN.matcher(checksum).matches();
+    }
+
+    private static boolean isResumed(URLConnection connection, long offset) throws IOException {
+        if (!(connection instanceof HttpURLConnection)) {
+            return false;
+        }
+        if (((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+            return false;
+        }
+        // Content-Range: bytes 1234-5678/5679
+        String contentRange = connection.getHeaderField("Content-Range");
+        return contentRange != null && contentRange.startsWith("bytes " + offset + "-");
+    }
+
+    private static void updateDigest(MessageDigest digest, Path file, long length) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                digest.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    private static void writePartMeta(Path partMetaFile, String checksum, long size) throws IOException {
+        Properties meta = new Properties();
+        meta.setProperty(KEY_CHECKSUM, checksum);
+        meta.setProperty(KEY_SIZE, String.valueOf(size));
+        try (Writer out = Files.newBufferedWriter(partMetaFile)) {
+            meta.store(out, null);
+        }
+    }
+
+    /**
+     * Copies all bytes from the given input to the given output, updating the given digest and reporting progress
+     * (starting at the given offset) to the given UI as it goes.
+     */
+    private static void transfer(InputStream in, OutputStream out, MessageDigest digest, long offset, LoaderUI ui) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        long totalRead = offset;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            digest.update(buffer, 0, read);
+            totalRead += read;
+            ui.setDownloaded((int) Math.min(totalRead, Integer.MAX_VALUE));
+        }
+    }
+
+    public static void logConnectionInfoOnError(URLConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        LOGGER.error("url: {}", connection.getURL());
+        LOGGER.error("cf-ray: {}", connection.getHeaderField("cf-ray"));
+    }
+
+    public interface ConnectionFactory {
+        URLConnection open(URL url) throws IOException;
+    }
+}
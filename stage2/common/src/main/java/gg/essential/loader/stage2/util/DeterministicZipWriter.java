@@ -0,0 +1,253 @@
+package gg.essential.loader.stage2.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes zip files which are byte-for-byte identical to what {@link java.util.zip.ZipOutputStream} produces for
+ * deflated entries with a constant timestamp, with the addition that entries which are already deflated in some other
+ * archive can be transferred as is (with their existing compressed data, CRC and sizes) without inflating and
+ * deflating them again.
+ * <p>
+ * Note that raw copies are only identical to a fresh {@link java.util.zip.ZipOutputStream} output if the source entry
+ * was compressed the same way (default level, same zlib), so callers which rely on the exact output should be
+ * prepared to fall back to {@link #write(String, InputStream)}.
+ * <p>
+ * Entries are written in the order given, callers are responsible for sorting them if they want a deterministic
+ * order. Archives with 65535 or more entries get Zip64 end records (same as {@link java.util.zip.ZipOutputStream}),
+ * but entries larger than 4GiB, or which start 4GiB or more into the archive, are not supported.
+ */
+public class DeterministicZipWriter implements Closeable {
+    private static final int LOCSIG = 0x04034b50;
+    private static final int EXTSIG = 0x08074b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+    private static final int ZIP64_ENDHDR = 56;
+    private static final long ZIP64_MAGICVAL = 0xffffffffL;
+    private static final int ZIP64_MAGICCOUNT = 0xffff;
+
+    private static final int VERSION = 20;
+    private static final int FLAG = 0x0808; // data descriptor + UTF-8 names
+
+    // A safe, constant value for creating consistent zip entries (1980-02-01 00:00:00, in MS-DOS date/time format)
+    // From: https://github.com/gradle/gradle/blob/d6c7fd470449a59fc57a26b4ebc0ad83c64af50a/subprojects/core/src/main/java/org/gradle/api/internal/file/archive/ZipCopyAction.java#L42-L57
+    private static final int CONSTANT_DOS_TIME = (2 << 21) | (1 << 16);
+
+    private final OutputStream out;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] buffer = new byte[64 * 1024];
+    private final byte[] deflateBuffer = new byte[64 * 1024];
+    private long written;
+    private int count;
+
+    public DeterministicZipWriter(Path path) throws IOException {
+        this.out = new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024);
+    }
+
+    /**
+     * Writes a new entry with the given (uncompressed) content.
+     */
+    public void write(String name, InputStream content) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long offset = writeLocalHeader(nameBytes);
+        long start = written;
+
+        CRC32 crc = new CRC32();
+        long size = 0;
+        deflater.reset();
+        int n;
+        while ((n = content.read(buffer)) != -1) {
+            crc.update(buffer, 0, n);
+            size += n;
+            deflater.setInput(buffer, 0, n);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+
+        finishEntry(nameBytes, offset, crc.getValue(), written - start, size);
+    }
+
+    /**
+     * Writes a new directory entry. The name must end with a slash.
+     */
+    public void writeDirectory(String name) throws IOException {
+        write(name, new ByteArrayInputStream(new byte[0]));
+    }
+
+    /**
+     * Writes a new entry with the given name, transferring the content of the given entry of the given archive as is.
+     * If the source entry is not deflated, it is compressed via {@link #write(String, InputStream)} instead.
+     */
+    public void copyRaw(String name, RawZipFile source, RawZipFile.Entry entry) throws IOException {
+        if (entry.getMethod() != ZipEntry.DEFLATED) {
+            try (InputStream in = source.getInputStream(entry)) {
+                write(name, in);
+            }
+            return;
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long offset = writeLocalHeader(nameBytes);
+        try (InputStream in = source.getRawInputStream(entry)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                written += n;
+            }
+        }
+        finishEntry(nameBytes, offset, entry.getCrc(), entry.getCompressedSize(), entry.getSize());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            deflater.end();
+            long offset = written;
+            long length = centralDirectory.size();
+            centralDirectory.writeTo(out);
+            written += length;
+
+            // Same conditions and layout as ZipOutputStream.writeEND
+            boolean zip64 = count >= ZIP64_MAGICCOUNT || length >= ZIP64_MAGICVAL || offset >= ZIP64_MAGICVAL;
+            if (zip64) {
+                long zip64EndOffset = written;
+                writeInt(ZIP64_ENDSIG);
+                writeLong(ZIP64_ENDHDR - 12); // size of the remaining record
+                writeShort(45); // version made by
+                writeShort(45); // version needed to extract
+                writeInt(0); // number of this disk
+                writeInt(0); // central directory start disk
+                writeLong(count); // number of entries on disk
+                writeLong(count); // total number of entries
+                writeLong(length); // length of central directory
+                writeLong(offset); // offset of central directory
+
+                writeInt(ZIP64_LOCSIG);
+                writeInt(0); // zip64 end record start disk
+                writeLong(zip64EndOffset); // offset of zip64 end record
+                writeInt(1); // total number of disks
+            }
+
+            writeInt(ENDSIG);
+            writeShort(0); // number of this disk
+            writeShort(0); // central directory start disk
+            writeShort(zip64 ? ZIP64_MAGICCOUNT : count); // number of entries on disk
+            writeShort(zip64 ? ZIP64_MAGICCOUNT : count); // total number of entries
+            writeInt(Math.min(length, ZIP64_MAGICVAL)); // length of central directory
+            writeInt(Math.min(offset, ZIP64_MAGICVAL)); // offset of central directory
+            writeShort(0); // comment length
+        } finally {
+            out.close();
+        }
+    }
+
+    private long writeLocalHeader(byte[] nameBytes) throws IOException {
+        long offset = written;
+        checkLimits(offset, 0);
+
+        writeInt(LOCSIG);
+        writeShort(VERSION);
+        writeShort(FLAG);
+        writeShort(ZipEntry.DEFLATED);
+        writeInt(CONSTANT_DOS_TIME);
+        writeInt(0); // crc and sizes follow in the data descriptor
+        writeInt(0);
+        writeInt(0);
+        writeShort(nameBytes.length);
+        writeShort(0); // extra length
+        out.write(nameBytes);
+        written += nameBytes.length;
+        return offset;
+    }
+
+    private void finishEntry(byte[] nameBytes, long offset, long crc, long compressedSize, long size) throws IOException {
+        checkLimits(compressedSize, size);
+
+        writeInt(EXTSIG);
+        writeInt(crc);
+        writeInt(compressedSize);
+        writeInt(size);
+
+        byte[] header = new byte[46];
+        putInt(header, 0, CENSIG);
+        putShort(header, 4, VERSION); // version made by
+        putShort(header, 6, VERSION); // version needed to extract
+        putShort(header, 8, FLAG);
+        putShort(header, 10, ZipEntry.DEFLATED);
+        putInt(header, 12, CONSTANT_DOS_TIME);
+        putInt(header, 16, crc);
+        putInt(header, 20, compressedSize);
+        putInt(header, 24, size);
+        putShort(header, 28, nameBytes.length);
+        // extra length, comment length, disk number, internal and external attributes are all zero
+        putInt(header, 42, offset);
+        centralDirectory.write(header);
+        centralDirectory.write(nameBytes);
+        count++;
+    }
+
+    private void deflate() throws IOException {
+        int n = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+        if (n > 0) {
+            out.write(deflateBuffer, 0, n);
+            written += n;
+        }
+    }
+
+    private static void checkLimits(long a, long b) throws ZipException {
+        if (a >= ZIP64_MAGICVAL || b >= ZIP64_MAGICVAL) {
+            throw new ZipException("Archive too large, entries of or beyond 4GiB are not supported");
+        }
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        written += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        out.write((int) (value & 0xff));
+        out.write((int) ((value >>> 8) & 0xff));
+        out.write((int) ((value >>> 16) & 0xff));
+        out.write((int) ((value >>> 24) & 0xff));
+        written += 4;
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value);
+        writeInt(value >>> 32);
+    }
+
+    private static void putShort(byte[] buf, int off, int value) {
+        buf[off] = (byte) value;
+        buf[off + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] buf, int off, long value) {
+        buf[off] = (byte) value;
+        buf[off + 1] = (byte) (value >>> 8);
+        buf[off + 2] = (byte) (value >>> 16);
+        buf[off + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,207 @@
+package gg.essential.loader.stage2.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Mark-and-sweep garbage collection for files and folders which we create but which would otherwise never be removed,
+ * e.g. extracted libraries which are no longer used by any mod.
+ * <p>
+ * Everything used during the current boot is {@link #markUsed(Path) marked}, and the time at which each candidate was
+ * last used is persisted, such that it can be {@link #sweep(Path, Predicate, long) swept} once it has not been used
+ * for longer than the grace period (the {@code essential.loader.gc.gracePeriod} system property, in seconds, 30 days by
+ * default). Candidates we have never seen before are considered to have been last used when they were last modified.
+ * <p>
+ * Additionally, a size budget may be given per swept folder, in which case the least recently used candidates are
+ * removed before their grace period is over until the folder fits into the budget. Anything used during the current
+ * boot is never removed.
+ */
+public class GarbageCollector {
+    private static final Logger LOGGER = LogManager.getLogger(GarbageCollector.class);
+    private static final long DEFAULT_GRACE_PERIOD_SECONDS = TimeUnit.DAYS.toSeconds(30);
+
+    private final Path file;
+    private final long gracePeriodMillis;
+    private final long now = System.currentTimeMillis();
+    private final Set<String> used = new HashSet<>();
+    private Properties lastUsed;
+
+    public GarbageCollector(Path file) {
+        this(file, TimeUnit.SECONDS.toMillis(Long.getLong("essential.loader.gc.gracePeriod", DEFAULT_GRACE_PERIOD_SECONDS)));
+    }
+
+    public GarbageCollector(Path file, long gracePeriodMillis) {
+        this.file = file;
+        this.gracePeriodMillis = gracePeriodMillis;
+    }
+
+    public synchronized void markUsed(Path path) {
+        String key = key(path);
+        used.add(key);
+        getLastUsed().setProperty(key, String.valueOf(now));
+    }
+
+    /**
+     * Removes all direct children of the given folder which match the given filter and have not been used recently.
+     *
+     * @param maxSize total size (in bytes) the matching children should be reduced to, or zero for no limit
+     */
+    public synchronized void sweep(Path dir, Predicate<Path> filter, long maxSize) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                if (!filter.test(path)) {
+                    continue;
+                }
+                String key = key(path);
+                long time;
+                try {
+                    time = Long.parseLong(getLastUsed().getProperty(key));
+                } catch (NumberFormatException e) {
+                    time = Files.getLastModifiedTime(path).toMillis();
+                    getLastUsed().setProperty(key, String.valueOf(time));
+                }
+                candidates.add(new Candidate(path, key, time));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to list " + dir + " for garbage collection:", e);
+            return;
+        }
+
+        candidates.sort(Comparator.comparingLong(it -> it.lastUsed));
+
+        long totalSize = 0;
+        if (maxSize > 0) {
+            for (Candidate candidate : candidates) {
+                totalSize += candidate.size = size(candidate.path);
+            }
+        }
+
+        for (Candidate candidate : candidates) {
+            if (used.contains(candidate.key)) {
+                continue;
+            }
+            boolean expired = now - candidate.lastUsed > gracePeriodMillis;
+            boolean overBudget = maxSize > 0 && totalSize > maxSize;
+            if (!expired && !overBudget) {
+                continue;
+            }
+            LOGGER.debug("Removing unused {} (last used {} days ago)", candidate.path,
+                TimeUnit.MILLISECONDS.toDays(now - candidate.lastUsed));
+            try {
+                if (Files.isDirectory(candidate.path)) {
+                    Delete.recursively(candidate.path);
+                } else {
+                    Files.delete(candidate.path);
+                }
+                getLastUsed().remove(candidate.key);
+                totalSize -= candidate.size;
+            } catch (IOException e) {
+                // Likely still in use by some other instance, we'll try again next time
+                LOGGER.debug("Failed to remove " + candidate.path + ":", e);
+            }
+        }
+    }
+
+    /**
+     * Persists the usage information, forgetting about anything which no longer exists.
+     */
+    public synchronized void save() {
+        Properties lastUsed = getLastUsed();
+        lastUsed.stringPropertyNames().stream()
+            .filter(path -> !exists(path))
+            .forEach(lastUsed::remove);
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path tempFile = Files.createTempFile(file.getParent(), "tmp-", ".properties");
+            try {
+                try (Writer out = Files.newBufferedWriter(tempFile)) {
+                    lastUsed.store(out, null);
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write garbage collection state to " + file + ":", e);
+        }
+    }
+
+    private Properties getLastUsed() {
+        if (lastUsed == null) {
+            lastUsed = new Properties();
+            if (Files.exists(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    lastUsed.load(in);
+                } catch (Exception e) {
+                    LOGGER.warn("Failed to read garbage collection state at " + file + ":", e);
+                }
+            }
+        }
+        return lastUsed;
+    }
+
+    private static boolean exists(String path) {
+        try {
+            return Files.exists(Paths.get(path));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private static long size(Path path) {
+        try (Stream<Path> stream = Files.walk(path)) {
+            long size = 0;
+            for (Path file : (Iterable<Path>) stream::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    size += attributes.size();
+                }
+            }
+            return size;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static class Candidate {
+        private final Path path;
+        private final String key;
+        private final long lastUsed;
+        private long size;
+
+        private Candidate(Path path, String key, long lastUsed) {
+            this.path = path;
+            this.key = key;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package gg.essential.loader.stage2.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Content-addressed store for jars extracted from other jars (Jar-in-Jar).
+ * <p>
+ * Each jar is stored at {@code <root>/<crc>-<size>/<file name>}, where crc and size are those of the uncompressed
+ * entry as recorded in the outer jar, so identical jars are only ever extracted once, no matter how many mods or game
+ * versions ship them, and a differing jar with the same name never gets mistaken for an already extracted one.
+ * The file name is kept as is because some platforms derive information (e.g. module names) from it.
+ * <p>
+ * Extracted jars are verified against the CRC recorded in the outer jar before they are moved into place. The size and
+ * modification time of the verified jar are then written to a stamp file next to it ({@code <file name>.verified}),
+ * and on later boots the jar is re-used as is while those still match. Only if they do not (or there is no stamp yet)
+ * is the existing jar verified against the CRC again, so a modified or corrupted file is replaced rather than loaded.
+ * <p>
+ * Multiple jars are extracted (and verified) in parallel on a small pool, see {@link #extractAll(RawZipFile, List)}.
+ * <p>
+ * Every folder in the store which is used is remembered (see {@link #getUsedDirectories()}), so unused ones can be
+ * garbage collected eventually.
+ */
+public class JarStore {
+    private static final Logger LOGGER = LogManager.getLogger(JarStore.class);
+
+    /** Maximum amount of jars which are extracted at the same time. */
+    private static final int MAX_CONCURRENT_EXTRACTIONS = 4;
+
+    private final Path root;
+    private final Set<Path> usedDirectories = ConcurrentHashMap.newKeySet();
+
+    public JarStore(Path root) {
+        this.root = root;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns all folders of the store which have been used (i.e. returned from {@link #extract}) so far.
+     */
+    public Set<Path> getUsedDirectories() {
+        return Collections.unmodifiableSet(usedDirectories);
+    }
+
+    /**
+     * Returns the paths of the given inner jars in the store (in the same order), extracting them from the given outer
+     * jar if necessary.
+     */
+    public List<Path> extractAll(RawZipFile outerJar, List<RawZipFile.Entry> innerJars) throws IOException {
+        List<Path> extractedJars = new ArrayList<>(innerJars.size());
+        if (innerJars.size() <= 1) {
+            for (RawZipFile.Entry innerJar : innerJars) {
+                extractedJars.add(extract(outerJar, innerJar));
+            }
+            return extractedJars;
+        }
+
+        // RawZipFile uses positional reads, so each worker can read its entry independently of the others
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(innerJars.size(), MAX_CONCURRENT_EXTRACTIONS), runnable -> {
+            Thread thread = new Thread(runnable, "Essential Loader Extraction Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Path>> futures = new ArrayList<>(innerJars.size());
+            for (RawZipFile.Entry innerJar : innerJars) {
+                futures.add(executor.submit(() -> extract(outerJar, innerJar)));
+            }
+            for (Future<Path> future : futures) {
+                extractedJars.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to extract jars from " + outerJar.getPath(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            // Note: Not interrupting running tasks, that would close the channel of the outer jar
+            executor.shutdown();
+        }
+        return extractedJars;
+    }
+
+    /**
+     * Returns the path of the given inner jar in the store, extracting it from the given outer jar if necessary.
+     */
+    public Path extract(RawZipFile outerJar, RawZipFile.Entry innerJar) throws IOException {
+        String name = innerJar.getName();
+        String fileName = name.substring(name.lastIndexOf('/') + 1);
+        Path dir = root.resolve(String.format("%08x-%d", innerJar.getCrc(), innerJar.getSize()));
+        Path extractedJar = dir.resolve(fileName);
+        usedDirectories.add(dir);
+
+        if (isValid(extractedJar, innerJar)) {
+            LOGGER.debug("Already extracted: {}", innerJar);
+            return extractedJar;
+        }
+
+        LOGGER.debug("Extracting {} from {} to {}", innerJar, outerJar.getPath(), extractedJar);
+        Files.createDirectories(dir);
+        // Copy to tmp jar first, so we do not leave behind incomplete jars
+        Path tmpJar = Files.createTempFile(dir, "tmp", ".jar");
+        try {
+            CRC32 crc = new CRC32();
+            try (InputStream in = new CheckedInputStream(outerJar.getInputStream(innerJar), crc);
+                 OutputStream out = Files.newOutputStream(tmpJar)) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            }
+            if (crc.getValue() != innerJar.getCrc() || Files.size(tmpJar) != innerJar.getSize()) {
+                throw new IOException("Extracted " + innerJar + " from " + outerJar.getPath() + " does not match its CRC");
+            }
+
+            // Then (if successful) perform an atomic rename
+            try {
+                Files.move(tmpJar, extractedJar, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                // Someone else (e.g. a concurrent extraction of the same jar) may have beaten us to it
+                if (isValid(extractedJar, innerJar)) {
+                    return extractedJar;
+                }
+                throw e;
+            }
+            writeStamp(extractedJar);
+        } finally {
+            Files.deleteIfExists(tmpJar);
+        }
+        return extractedJar;
+    }
+
+    private static boolean isValid(Path file, RawZipFile.Entry entry) {
+        try {
+            if (!Files.isRegularFile(file) || Files.size(file) != entry.getSize()) {
+                return false;
+            }
+            String stamp = getStamp(file);
+            Path stampFile = getStampFile(file);
+            if (Files.exists(stampFile) && stamp.equals(new String(Files.readAllBytes(stampFile), UTF_8))) {
+                return true;
+            }
+            CRC32 crc = new CRC32();
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    crc.update(buf, 0, n);
+                }
+            }
+            if (crc.getValue() != entry.getCrc()) {
+                LOGGER.warn("Previously extracted {} is corrupted, extracting it again.", file);
+                return false;
+            }
+            // Verified, so we can skip this next time
+            writeStamp(file);
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to verify previously extracted " + file + ":", e);
+            return false;
+        }
+    }
+
+    private static Path getStampFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".verified");
+    }
+
+    private static String getStamp(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return attributes.size() + "|" + attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Records that the given file has been verified in its current state.
+     * Failing to do so is not fatal, it merely means that the file will be verified again next time.
+     */
+    private static void writeStamp(Path file) {
+        try {
+            Path tmpFile = Files.createTempFile(file.getParent(), "tmp", ".verified");
+            try {
+                Files.write(tmpFile, getStamp(file).getBytes(UTF_8));
+                Files.move(tmpFile, getStampFile(file), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Failed to write verification stamp for " + file + ":", e);
+        }
+    }
+}
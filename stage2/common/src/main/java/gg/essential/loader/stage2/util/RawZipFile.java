@@ -0,0 +1,395 @@
+package gg.essential.loader.stage2.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal zip reader which gives access to the raw (still compressed) data of each entry, so it can be copied to a
+ * {@link DeterministicZipWriter} without having to inflate and deflate it again.
+ * <p>
+ * Only the central directory is read up front. Zip64 archives are supported for reading (e.g. jars with more than
+ * 65535 entries), but spanned archives are not.
+ * <p>
+ * Besides files, in-memory archives (e.g. a jar nested in another jar) can be read as well.
+ */
+public class RawZipFile implements Closeable {
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+    private static final int ZIP64_EXTID = 0x0001;
+    private static final int LOCHDR = 30;
+    private static final int CENHDR = 46;
+    private static final int ENDHDR = 22;
+    private static final int ZIP64_ENDHDR = 56;
+    private static final int ZIP64_LOCHDR = 20;
+
+    private final Path path;
+    private final FileChannel channel; // null if in-memory
+    private final byte[] data; // null if backed by a file
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByName = new HashMap<>();
+
+    public RawZipFile(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.data = null;
+        try {
+            this.entries = readEntries();
+        } catch (Throwable t) {
+            channel.close();
+            throw t;
+        }
+    }
+
+    /**
+     * Reads the given in-memory archive. The path is only used to identify the archive in messages.
+     */
+    public RawZipFile(Path path, byte[] data) throws IOException {
+        this.path = path;
+        this.channel = null;
+        this.data = data;
+        this.entries = readEntries();
+    }
+
+    private List<Entry> readEntries() throws IOException {
+        List<Entry> entries = Collections.unmodifiableList(readCentralDirectory());
+        for (Entry entry : entries) {
+            entriesByName.putIfAbsent(entry.name, entry);
+        }
+        return entries;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns all entries in the order in which they appear in the central directory.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the entry with the given name, or {@code null} if there is no such entry.
+     */
+    public Entry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    /**
+     * Opens a stream of the raw data of the given entry, i.e. as stored in the archive, without decompressing it.
+     */
+    public InputStream getRawInputStream(Entry entry) throws IOException {
+        ByteBuffer header = read(entry.localHeaderOffset, LOCHDR);
+        if (header.getInt(0) != LOCSIG) {
+            throw new ZipException("Invalid local header for " + entry.name + " in " + path);
+        }
+        long dataOffset = entry.localHeaderOffset + LOCHDR + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+        return new RegionInputStream(dataOffset, entry.compressedSize);
+    }
+
+    /**
+     * Opens a stream of the uncompressed content of the given entry.
+     */
+    public InputStream getInputStream(Entry entry) throws IOException {
+        InputStream raw = getRawInputStream(entry);
+        switch (entry.method) {
+            case ZipEntry.STORED:
+                return raw;
+            case ZipEntry.DEFLATED:
+                // Inflater in nowrap mode may require an extra dummy byte at the end of the input (same as ZipFile)
+                InputStream padded = new SequenceInputStream(raw, new ByteArrayInputStream(new byte[1]));
+                Inflater inflater = new Inflater(true);
+                return new InflaterInputStream(padded, inflater) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            default:
+                raw.close();
+                throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name + " in " + path);
+        }
+    }
+
+    /**
+     * Reads the full uncompressed content of the given entry.
+     */
+    public byte[] readAllBytes(Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE - 8) {
+            throw new ZipException("Entry " + entry.name + " in " + path + " is too large");
+        }
+        byte[] bytes = new byte[(int) entry.size];
+        try (InputStream in = getInputStream(entry)) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int n = in.read(bytes, offset, bytes.length - offset);
+                if (n < 0) {
+                    throw new EOFException("Unexpected end of " + entry.name + " in " + path);
+                }
+                offset += n;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long fileSize = channel != null ? channel.size() : data.length;
+        int tailSize = (int) Math.min(fileSize, ENDHDR + 0xffff);
+        ByteBuffer tail = read(fileSize - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - ENDHDR; i >= 0; i--) {
+            if (tail.getInt(i) == ENDSIG && i + ENDHDR + (tail.getShort(i + 20) & 0xffff) == tailSize) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new ZipException("Could not find end of central directory in " + path);
+        }
+
+        long count = tail.getShort(end + 10) & 0xffff;
+        long cenSize = tail.getInt(end + 12) & 0xffffffffL;
+        long cenOffset = tail.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || cenSize == 0xffffffffL || cenOffset == 0xffffffffL) {
+            // The real values are in the Zip64 end of central directory record, which the locator right before the
+            // regular end record points to
+            long endPosition = fileSize - tailSize + end;
+            if (endPosition < ZIP64_LOCHDR) {
+                throw new ZipException("Could not find Zip64 end of central directory locator in " + path);
+            }
+            ByteBuffer locator = read(endPosition - ZIP64_LOCHDR, ZIP64_LOCHDR);
+            if (locator.getInt(0) != ZIP64_LOCSIG) {
+                throw new ZipException("Could not find Zip64 end of central directory locator in " + path);
+            }
+            long zip64EndPosition = locator.getLong(8);
+            if (zip64EndPosition < 0 || zip64EndPosition + ZIP64_ENDHDR > endPosition) {
+                throw new ZipException("Invalid Zip64 end of central directory locator in " + path);
+            }
+            ByteBuffer zip64End = read(zip64EndPosition, ZIP64_ENDHDR);
+            if (zip64End.getInt(0) != ZIP64_ENDSIG) {
+                throw new ZipException("Invalid Zip64 end of central directory in " + path);
+            }
+            count = zip64End.getLong(32);
+            cenSize = zip64End.getLong(40);
+            cenOffset = zip64End.getLong(48);
+        }
+        if (count < 0 || count > Integer.MAX_VALUE || cenSize < 0 || cenOffset < 0
+            || cenOffset + cenSize > fileSize || cenSize > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid central directory in " + path);
+        }
+
+        ByteBuffer cen = read(cenOffset, (int) cenSize);
+        List<Entry> entries = new ArrayList<>((int) Math.min(count, cenSize / CENHDR));
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CENHDR > cen.limit() || cen.getInt(pos) != CENSIG) {
+                throw new ZipException("Invalid central directory entry in " + path);
+            }
+            int flag = cen.getShort(pos + 8) & 0xffff;
+            int method = cen.getShort(pos + 10) & 0xffff;
+            long crc = cen.getInt(pos + 16) & 0xffffffffL;
+            long compressedSize = cen.getInt(pos + 20) & 0xffffffffL;
+            long size = cen.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = cen.getShort(pos + 28) & 0xffff;
+            int extraLength = cen.getShort(pos + 30) & 0xffff;
+            int commentLength = cen.getShort(pos + 32) & 0xffff;
+            long localHeaderOffset = cen.getInt(pos + 42) & 0xffffffffL;
+            if (compressedSize == 0xffffffffL || size == 0xffffffffL || localHeaderOffset == 0xffffffffL) {
+                // The real values are in the Zip64 extra field, in this order, but only those which did not fit
+                int extraPos = findExtra(cen, pos + CENHDR + nameLength, extraLength, ZIP64_EXTID);
+                int extraEnd = extraPos + (extraPos != -1 ? cen.getShort(extraPos - 2) & 0xffff : 0);
+                if (size == 0xffffffffL) {
+                    if (extraPos == -1 || extraPos + 8 > extraEnd) throw invalidZip64Extra();
+                    size = cen.getLong(extraPos);
+                    extraPos += 8;
+                }
+                if (compressedSize == 0xffffffffL) {
+                    if (extraPos == -1 || extraPos + 8 > extraEnd) throw invalidZip64Extra();
+                    compressedSize = cen.getLong(extraPos);
+                    extraPos += 8;
+                }
+                if (localHeaderOffset == 0xffffffffL) {
+                    if (extraPos == -1 || extraPos + 8 > extraEnd) throw invalidZip64Extra();
+                    localHeaderOffset = cen.getLong(extraPos);
+                }
+                if (size < 0 || compressedSize < 0 || localHeaderOffset < 0) {
+                    throw invalidZip64Extra();
+                }
+            }
+            if ((flag & 1) != 0) {
+                throw new ZipException("Encrypted entries are not supported: " + path);
+            }
+            byte[] nameBytes = new byte[nameLength];
+            ((ByteBuffer) cen.duplicate().position(pos + CENHDR)).get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            entries.add(new Entry(name, method, crc, compressedSize, size, localHeaderOffset));
+            pos += CENHDR + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the position of the data of the extra field with the given id, or -1 if there is no such field.
+     */
+    private int findExtra(ByteBuffer cen, int pos, int length, int id) throws ZipException {
+        int end = pos + length;
+        if (end > cen.limit()) {
+            throw new ZipException("Invalid central directory entry in " + path);
+        }
+        while (pos + 4 <= end) {
+            int fieldId = cen.getShort(pos) & 0xffff;
+            int fieldLength = cen.getShort(pos + 2) & 0xffff;
+            if (pos + 4 + fieldLength > end) {
+                break;
+            }
+            if (fieldId == id) {
+                return pos + 4;
+            }
+            pos += 4 + fieldLength;
+        }
+        return -1;
+    }
+
+    private ZipException invalidZip64Extra() {
+        return new ZipException("Invalid Zip64 extra field in " + path);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (readAt(buf, position + buf.position()) < 0) {
+                throw new EOFException("Unexpected end of " + path);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private int readAt(ByteBuffer buf, long position) throws IOException {
+        if (channel != null) {
+            return channel.read(buf, position);
+        }
+        if (position >= data.length) {
+            return -1;
+        }
+        int n = (int) Math.min(buf.remaining(), data.length - position);
+        buf.put(data, (int) position, n);
+        return n;
+    }
+
+    /**
+     * Reads a region of the underlying channel (or array) via positional reads, so multiple streams can be open at the same time.
+     */
+    private class RegionInputStream extends InputStream {
+        private long position;
+        private long remaining;
+
+        private RegionInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buf = new byte[1];
+            return read(buf, 0, 1) == 1 ? buf[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = readAt(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of " + path);
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        private Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package gg.essential.loader.stage2.api;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import gg.essential.loader.stage2.data.ModId;
+import gg.essential.loader.stage2.data.ModVersion;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BatchMetadataClientTest {
+    private static final ModId OTHER_MOD = new ModId("pub", null, "mod", null);
+
+    private HttpServer server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicReference<String> lastRequest = new AtomicReference<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/unsupported", exchange -> {
+            requestCount.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.createContext("/batch", exchange -> {
+            requestCount.incrementAndGet();
+            try (InputStream in = exchange.getRequestBody()) {
+                lastRequest.set(IOUtils.toString(in, StandardCharsets.UTF_8));
+            }
+            byte[] response = ("{\"mods\": [" +
+                "{\"mod\": \"essential:essential\", \"branch\": \"stable\", \"id\": \"a\", \"version\": \"1.1\", \"checksum\": \"abc\"," +
+                " \"download\": {\"url\": \"https://example.com/full.jar\", \"checksum\": \"abc\"}," +
+                " \"diff\": {\"from\": \"1.0\", \"url\": \"https://example.com/diff.zip\", \"checksum\": \"def\"}}," +
+                "{\"mod\": \"pub:mod\", \"branch\": \"beta\", \"id\": \"b\", \"version\": \"2.0\", \"checksum\": \"123\"}," +
+                "{\"mod\": \"pub:unknown\", \"branch\": \"stable\", \"id\": \"c\", \"version\": \"3.0\", \"checksum\": \"456\"}" +
+                "]}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    void resolvesAllModsInOneRequest() throws IOException {
+        BatchMetadataClient.Request essential = new BatchMetadataClient.Request(ModId.ESSENTIAL, "stable", new ModVersion("z", "1.0"));
+        BatchMetadataClient.Request other = new BatchMetadataClient.Request(OTHER_MOD, "beta", null);
+
+        Map<BatchMetadataClient.Request, BatchMetadataClient.Result> results =
+            new BatchMetadataClient(url("/batch"), "1-12-2").fetch(Arrays.asList(essential, other));
+
+        assertNotNull(results);
+        assertEquals(1, requestCount.get());
+        assertEquals(2, results.size());
+
+        JsonObject request = new JsonParser().parse(lastRequest.get()).getAsJsonObject();
+        assertEquals("1-12-2", request.get("platform").getAsString());
+        assertEquals(2, request.getAsJsonArray("mods").size());
+
+        BatchMetadataClient.Result essentialResult = results.get(essential);
+        assertEquals(new ModVersion("a", "1.1"), essentialResult.getLatest().getVersion());
+        assertEquals("abc", essentialResult.getLatest().getChecksum());
+        assertEquals("https://example.com/full.jar", essentialResult.getDownload().getUrl().toString());
+        assertEquals("def", essentialResult.getDiff(new ModVersion("z", "1.0")).getChecksum());
+        assertNull(essentialResult.getDiff(new ModVersion("y", "0.9")));
+
+        BatchMetadataClient.Result otherResult = results.get(other);
+        assertEquals(OTHER_MOD, otherResult.getLatest().getMod());
+        assertEquals(new ModVersion("b", "2.0"), otherResult.getLatest().getVersion());
+        assertNull(otherResult.getDownload());
+        assertNull(otherResult.getDiff(new ModVersion("z", "1.0")));
+    }
+
+    @Test
+    void returnsNullIfUnsupported() throws IOException {
+        BatchMetadataClient.Request essential = new BatchMetadataClient.Request(ModId.ESSENTIAL, "stable", null);
+
+        assertNull(new BatchMetadataClient(url("/unsupported"), "1-12-2").fetch(Arrays.asList(essential)));
+        assertEquals(1, requestCount.get());
+    }
+}
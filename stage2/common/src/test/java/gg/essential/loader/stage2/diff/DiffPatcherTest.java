@@ -0,0 +1,158 @@
+package gg.essential.loader.stage2.diff;
+
+import gg.essential.loader.stage2.util.Delete;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DiffPatcherTest {
+    private static final long CONSTANT_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+    private Path tmpDir;
+
+    @BeforeEach
+    void setup() throws IOException {
+        tmpDir = Files.createTempDirectory("test");
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        Delete.recursively(tmpDir);
+    }
+
+    @Test
+    void appliesDiffIdenticallyToFreshJar() throws IOException {
+        byte[] oldClass = bytes("class A { old body; shared tail }");
+        byte[] newClass = bytes("class A { new body; shared tail }");
+
+        Map<String, byte[]> source = new TreeMap<>();
+        source.put("META-INF/MANIFEST.MF", bytes("Manifest-Version: 1.0\n"));
+        source.put("a/A.class", oldClass);
+        source.put("a/B.class", bytes("B"));
+        source.put("gone/C.class", bytes("C"));
+
+        Map<String, byte[]> diff = new TreeMap<>();
+        diff.put("-/gone/C.class", new byte[0]);
+        diff.put("~/a/B.class", bytes("B2"));
+        diff.put("+/added/D.class", bytes("D"));
+        diff.put("%/a/A.class", delta(oldClass, newClass, 10, 13));
+
+        Map<String, byte[]> expected = new TreeMap<>();
+        expected.put("META-INF/MANIFEST.MF", source.get("META-INF/MANIFEST.MF"));
+        expected.put("a/A.class", newClass);
+        expected.put("a/B.class", bytes("B2"));
+        expected.put("added/", new byte[0]);
+        expected.put("added/D.class", bytes("D"));
+
+        Path sourceFile = zip("source.jar", source);
+        Path diffFile = zip("diff.zip", diff);
+        Path expectedFile = zip("expected.jar", expected);
+
+        for (boolean copyRaw : new boolean[] { true, false }) {
+            Path targetFile = tmpDir.resolve("target-" + copyRaw + ".jar");
+            DiffPatcher.apply(sourceFile, diffFile, targetFile, copyRaw);
+            assertArrayEquals(Files.readAllBytes(expectedFile), Files.readAllBytes(targetFile));
+        }
+    }
+
+    @Test
+    void appliesDiffToZip64Jar() throws IOException {
+        // More entries than fit into the regular end of central directory record, so both jars need Zip64 end records
+        int count = 0x10000 + 10;
+        Map<String, byte[]> source = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            source.put("entry" + i + ".txt", bytes("content" + i));
+        }
+
+        Map<String, byte[]> diff = new TreeMap<>();
+        diff.put("~/entry0.txt", bytes("changed"));
+
+        Map<String, byte[]> expected = new TreeMap<>(source);
+        expected.put("entry0.txt", bytes("changed"));
+
+        Path sourceFile = zip("source.jar", source);
+        Path diffFile = zip("diff.zip", diff);
+        Path expectedFile = zip("expected.jar", expected);
+
+        for (boolean copyRaw : new boolean[] { true, false }) {
+            Path targetFile = tmpDir.resolve("target-" + copyRaw + ".jar");
+            DiffPatcher.apply(sourceFile, diffFile, targetFile, copyRaw);
+            assertArrayEquals(Files.readAllBytes(expectedFile), Files.readAllBytes(targetFile));
+        }
+    }
+
+    @Test
+    void rejectsDeltaForDifferentSource() throws IOException {
+        Map<String, byte[]> source = new TreeMap<>();
+        source.put("A.class", bytes("something else entirely"));
+
+        Map<String, byte[]> diff = new TreeMap<>();
+        diff.put("%/A.class", delta(bytes("class A { old }"), bytes("class A { new }"), 10, 13));
+
+        Path sourceFile = zip("source.jar", source);
+        Path diffFile = zip("diff.zip", diff);
+        assertThrows(IOException.class, () -> DiffPatcher.apply(sourceFile, diffFile, tmpDir.resolve("target.jar"), true));
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a delta which replaces the given range of the source with the corresponding range of the target.
+     */
+    private static byte[] delta(byte[] source, byte[] target, int start, int end) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(source);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(DeltaPatcher.MAGIC);
+        out.writeInt((int) crc.getValue());
+        out.writeInt(source.length);
+        out.writeInt(target.length);
+        out.write(DeltaPatcher.OP_COPY);
+        out.writeInt(0);
+        out.writeInt(start);
+        out.write(DeltaPatcher.OP_ADD);
+        out.writeInt(end - start);
+        out.write(Arrays.copyOfRange(target, start, end));
+        out.write(DeltaPatcher.OP_COPY);
+        out.writeInt(end);
+        out.writeInt(source.length - end);
+        out.write(DeltaPatcher.OP_END);
+        return bytes.toByteArray();
+    }
+
+    private Path zip(String name, Map<String, byte[]> entries) throws IOException {
+        Path path = tmpDir.resolve(name);
+        try (OutputStream fileOut = Files.newOutputStream(path);
+             ZipOutputStream out = new ZipOutputStream(fileOut)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setTime(CONSTANT_TIME);
+                out.putNextEntry(zipEntry);
+                out.write(entry.getValue());
+            }
+        }
+        return path;
+    }
+}
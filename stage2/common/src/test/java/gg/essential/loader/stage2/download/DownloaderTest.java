@@ -0,0 +1,173 @@
+package gg.essential.loader.stage2.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import gg.essential.loader.stage2.LoaderUI;
+import gg.essential.loader.stage2.util.Delete;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloaderTest {
+    private static final LoaderUI NO_UI = new LoaderUI() {
+        @Override public void start() {}
+        @Override public void setDownloadSize(int bytes) {}
+        @Override public void setDownloaded(int bytes) {}
+        @Override public void complete() {}
+    };
+
+    private final byte[] content = new byte[(int) Downloader.SEGMENTED_THRESHOLD + 123_456];
+    private final String checksum;
+
+    private HttpServer server;
+    private Path tmpDir;
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicInteger fullRequests = new AtomicInteger();
+
+    DownloaderTest() {
+        new Random(42).nextBytes(content);
+        checksum = DigestUtils.md5Hex(content);
+    }
+
+    @BeforeEach
+    void setup() throws IOException {
+        tmpDir = Files.createTempDirectory("test");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ranged", exchange -> serve(exchange, true));
+        server.createContext("/plain", exchange -> serve(exchange, false));
+        server.createContext("/single-range", exchange -> {
+            // Like some CDNs: answers the probe (and the first segment), but rejects any further range
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && !range.startsWith("bytes=0-")) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            serve(exchange, true);
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        server.stop(0);
+        Delete.recursively(tmpDir);
+    }
+
+    private void serve(HttpExchange exchange, boolean supportsRanges) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int start = 0;
+        int end = content.length - 1;
+        if (supportsRanges && range != null) {
+            String[] parts = range.substring("bytes=".length()).split("-", -1);
+            start = Integer.parseInt(parts[0]);
+            if (!parts[1].isEmpty()) {
+                end = Math.min(end, Integer.parseInt(parts[1]));
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, end + 1 - start);
+            rangeRequests.incrementAndGet();
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+            fullRequests.incrementAndGet();
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content, start, end + 1 - start);
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    void segmentedDownload() throws IOException {
+        Path target = tmpDir.resolve("target.jar");
+        Downloader downloader = new Downloader(URL::openConnection, 4);
+
+        assertEquals(checksum, downloader.downloadSegmented(url("/ranged"), target, checksum, tmpDir.resolve("downloads"), NO_UI));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(1 + 4, rangeRequests.get()); // probe + segments
+        assertEquals(0, fullRequests.get());
+    }
+
+    @Test
+    void segmentedDownloadFallsBackWithoutRangeSupport() throws IOException {
+        Path target = tmpDir.resolve("target.jar");
+        Downloader downloader = new Downloader(URL::openConnection, 4);
+
+        assertEquals(checksum, downloader.downloadSegmented(url("/plain"), target, checksum, tmpDir.resolve("downloads"), NO_UI));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    void segmentedDownloadFallsBackWhenSegmentFails() throws IOException {
+        Path target = tmpDir.resolve("target.jar");
+        Downloader downloader = new Downloader(URL::openConnection, 4);
+
+        assertEquals(checksum, downloader.downloadSegmented(url("/single-range"), target, checksum, tmpDir.resolve("downloads"), NO_UI));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(1, fullRequests.get());
+    }
+
+    @Test
+    void resumesPartialDownload() throws IOException {
+        Path target = tmpDir.resolve("target.jar");
+        Path downloadsDir = tmpDir.resolve("downloads");
+        Files.createDirectories(downloadsDir);
+        Files.write(downloadsDir.resolve(checksum + ".part"), Arrays.copyOf(content, 1_000_000));
+        Files.write(downloadsDir.resolve(checksum + ".part.meta"), ("checksum=" + checksum + "\nsize=" + content.length).getBytes());
+        Downloader downloader = new Downloader(URL::openConnection, 1);
+
+        assertEquals(checksum, downloader.download(url("/ranged"), target, checksum, downloadsDir, NO_UI));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(1, rangeRequests.get());
+        assertFalse(Files.exists(downloadsDir.resolve(checksum + ".part")));
+        assertFalse(Files.exists(downloadsDir.resolve(checksum + ".part.meta")));
+    }
+
+    @Test
+    void restartsPartialDownloadWithoutRangeSupport() throws IOException {
+        Path target = tmpDir.resolve("target.jar");
+        Path downloadsDir = tmpDir.resolve("downloads");
+        Files.createDirectories(downloadsDir);
+        Files.write(downloadsDir.resolve(checksum + ".part"), Arrays.copyOf(content, 1_000_000));
+        Files.write(downloadsDir.resolve(checksum + ".part.meta"), ("checksum=" + checksum + "\nsize=" + content.length).getBytes());
+        Downloader downloader = new Downloader(URL::openConnection, 1);
+
+        assertEquals(checksum, downloader.download(url("/plain"), target, checksum, downloadsDir, NO_UI));
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(1, fullRequests.get());
+        assertTrue(Files.exists(target));
+    }
+
+    @Test
+    void rejectsInvalidChecksum() throws IOException {
+        Path target = tmpDir.resolve("target.jar");
+        Path downloadsDir = tmpDir.resolve("downloads");
+        Downloader downloader = new Downloader(URL::openConnection, 4);
+
+        assertNull(downloader.download(url("/ranged"), target, "../" + checksum, downloadsDir, NO_UI));
+        assertNull(downloader.downloadSegmented(url("/ranged"), target, checksum.substring(1), downloadsDir, NO_UI));
+        assertEquals(0, rangeRequests.get() + fullRequests.get());
+        assertFalse(Files.exists(target));
+    }
+}
@@ -0,0 +1,38 @@
+package gg.essential.loader.stage2.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class RawZipFileTest {
+
+    @Test
+    void readsZip64Archive() throws IOException {
+        // More entries than fit into the regular end of central directory record, so this is written as Zip64
+        int count = 0x10000 + 10;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < count; i++) {
+                out.putNextEntry(new ZipEntry("entry" + i + ".txt"));
+                out.write(("content" + i).getBytes(UTF_8));
+                out.closeEntry();
+            }
+        }
+
+        try (RawZipFile zip = new RawZipFile(Paths.get("test.zip"), bytes.toByteArray())) {
+            assertEquals(count, zip.getEntries().size());
+            RawZipFile.Entry last = zip.getEntry("entry" + (count - 1) + ".txt");
+            assertNotNull(last);
+            assertArrayEquals(("content" + (count - 1)).getBytes(UTF_8), zip.readAllBytes(last));
+        }
+    }
+}
@@ -110,7 +110,7 @@ public class EssentialLoader extends EssentialLoaderBase {
         // FIXME doing this mod-by-mod may require a restart per mod; naively sharing the same handler between all mods
         //       may cause conflicts between them. we should probably implement a proper solution before prime time.
         //       we also need to black-list our stage0
-        JarInJarDependenciesHandler jijHandler = new JarInJarDependenciesHandler(getExtractedJarsRoot(mod));
+        JarInJarDependenciesHandler jijHandler = new JarInJarDependenciesHandler(getJarStore());
 
         innerJars = innerJars.stream()
             .flatMap(path -> jijHandler.loadMod(path).stream())
@@ -1,6 +1,8 @@
 package gg.essential.loader.stage2.jij;
 
 import gg.essential.loader.stage2.data.FabricModJson;
+import gg.essential.loader.stage2.util.JarStore;
+import gg.essential.loader.stage2.util.RawZipFile;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.ModContainer;
 import net.fabricmc.loader.api.SemanticVersion;
@@ -11,11 +13,10 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -75,12 +76,12 @@ public class JarInJarDependenciesHandler {
     private final List<Path> modsToDisable = new ArrayList<>();
 
     /**
-     * Folder into which nested jars are extracted.
+     * Store into which nested jars are extracted.
      */
-    private final Path extractedJarsRoot;
+    private final JarStore jarStore;
 
-    public JarInJarDependenciesHandler(Path extractedJarsRoot) {
-        this.extractedJarsRoot = extractedJarsRoot;
+    public JarInJarDependenciesHandler(JarStore jarStore) {
+        this.jarStore = jarStore;
     }
 
     /**
@@ -219,29 +220,18 @@ public class JarInJarDependenciesHandler {
             return Collections.emptyList();
         }
 
-        final List<Path> extractedJars = new ArrayList<>();
-
-        try (FileSystem fileSystem = FileSystems.newFileSystem(outerJar, (ClassLoader) null)) {
+        try (RawZipFile zip = new RawZipFile(outerJar)) {
+            final List<RawZipFile.Entry> innerJars = new ArrayList<>();
             for (FabricModJson.Jar jarInfo : fabricModJson.getJars()) {
-                Path innerJar = fileSystem.getPath(jarInfo.getFile());
-                // For now, we'll assume that the file name is sufficiently unique of an identifier
-                final Path extractedJar = extractedJarsRoot.resolve(innerJar.getFileName().toString());
-                if (Files.exists(extractedJar)) {
-                    LOGGER.debug("Already extracted: {}", innerJar);
-                } else {
-                    LOGGER.debug("Extracting {} from {} to {}", innerJar, outerJar, extractedJar);
-                    // Copy to tmp jar first, so we do not leave behind incomplete jars
-                    final Path tmpJar = Files.createTempFile(extractedJarsRoot, "tmp", ".jar");
-                    Files.copy(innerJar, tmpJar, StandardCopyOption.REPLACE_EXISTING);
-                    // Then (if successful) perform an atomic rename
-                    Files.move(tmpJar, extractedJar, StandardCopyOption.ATOMIC_MOVE);
+                String name = jarInfo.getFile().startsWith("/") ? jarInfo.getFile().substring(1) : jarInfo.getFile();
+                RawZipFile.Entry innerJar = zip.getEntry(name);
+                if (innerJar == null) {
+                    throw new NoSuchFileException(name, null, "Not found in " + outerJar);
                 }
-                // Store the extracted path for later
-                extractedJars.add(extractedJar);
+                innerJars.add(innerJar);
             }
+            return jarStore.extractAll(zip, innerJars);
         }
-
-        return extractedJars;
     }
 
     /**
@@ -6,13 +6,19 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import gg.essential.loader.stage2.relaunch.Relaunch;
+import gg.essential.loader.stage2.util.DiscoveryIndex;
+import gg.essential.loader.stage2.util.GarbageCollector;
+import gg.essential.loader.stage2.util.JarSource;
+import gg.essential.loader.stage2.util.JarStore;
+import gg.essential.loader.stage2.util.ManifestIndex;
 import gg.essential.loader.stage2.util.MixinExtrasExtractor;
+import gg.essential.loader.stage2.util.RawZipFile;
 import net.minecraft.launchwrapper.ITweaker;
 import net.minecraft.launchwrapper.Launch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -21,13 +27,14 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -38,14 +45,23 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.stream.Collectors;
 
 import static gg.essential.loader.stage2.util.VersionComparison.compareVersions;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 public class Loader {
@@ -64,18 +80,21 @@ public class Loader {
     private static final String STAGE2_PKG_PATH = STAGE2_PKG.replace('.', '/');
     private static final String STAGE2_CLS = STAGE2_PKG + "EssentialSetupTweaker";
 
+    /** Maximum amount of jars which are inspected at the same time. */
+    private static final int MAX_DISCOVERY_THREADS = 8;
+
+    private static final Path LOADED_STAGE2_PATH;
     private static final String LOADED_STAGE2_VERSION;
 
     static {
         // Note: Cannot just use `Loader.class.getPackage().getImplementationVersion()` because LaunchWrapper does not
         //       properly handle packages, we'll just get a dummy package with `null` version.
-        Path loadedPath;
         try {
-            loadedPath = Paths.get(Loader.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            LOADED_STAGE2_PATH = Paths.get(Loader.class.getProtectionDomain().getCodeSource().getLocation().toURI());
         } catch (URISyntaxException e) {
             throw new RuntimeException(e);
         }
-        LOADED_STAGE2_VERSION = readStage2Version(loadedPath);
+        LOADED_STAGE2_VERSION = readStage2Version(LOADED_STAGE2_PATH);
 
         LOGGER.info("Running Essential Loader v{}", LOADED_STAGE2_VERSION);
         System.setProperty("essential.stage2.version", LOADED_STAGE2_VERSION);
@@ -85,6 +104,29 @@ public class Loader {
         .toPath()
         .toAbsolutePath();
 
+    /** Remembers what we found in each jar, so we don't need to open unchanged jars on every boot. */
+    private final DiscoveryIndex discoveryIndex = new DiscoveryIndex(
+        minecraftHome.resolve("essential").resolve("loader").resolve("discovery-index.json"),
+        LOADED_STAGE2_VERSION
+    );
+    /** Where nested jars (and newer loader jars) are extracted to once we know that we'll actually load them. */
+    private final JarStore jarStore = new JarStore(minecraftHome.resolve("essential").resolve("loader").resolve("jars"));
+    /** Where MixinExtras is extracted to from mods which ship it directly in their jar. */
+    private final Path mixinExtrasRoot = minecraftHome.resolve("essential").resolve("loader").resolve("mixinextras");
+    private final Set<Path> usedMixinExtrasDirectories = new HashSet<>();
+    /** Manifests of all top-level jars we have looked at, passed on to the relaunch, see {@link #relaunch(List)}. */
+    private final ManifestIndex manifestIndex = new ManifestIndex();
+
+    /**
+     * Pool on which jars are inspected ahead of time, so the actual discovery, which stays
+     * serial to keep its result deterministic, only has to join the results.
+     */
+    private ForkJoinPool discoveryPool;
+    /** Inspection results by jar, see {@link #scanAsync(JarSource)}. */
+    private final Map<String, ForkJoinTask<DiscoveryIndex.Entry>> scans = new ConcurrentHashMap<>();
+    /** Nested jars by outer jar and inner path, see {@link #getNestedAsync(JarSource, String)}. */
+    private final Map<List<String>, ForkJoinTask<JarSource>> nestedJars = new ConcurrentHashMap<>();
+
     /** Path to a more recent loader jar file if one was found during discovery. */
     private Path newerLoaderJar;
     private String latestLoaderJarVersion = LOADED_STAGE2_VERSION;
@@ -117,6 +159,13 @@ public class Loader {
     }
 
     private void relaunch(List<JarInfo> jars) {
+        // Only now that we know which jars we'll actually load do nested ones need to exist as actual files
+        for (JarInfo jar : jars) {
+            jar.file = getFile(jar.source);
+        }
+
+        collectGarbage();
+
         List<URL> loadedByForge = Launch.classLoader.getSources();
 
         RelaunchInfo relaunchInfo = new RelaunchInfo();
@@ -125,8 +174,22 @@ public class Loader {
             .collect(Collectors.toSet());
         relaunchInfo.extraMods = jars.stream()
             .filter(it -> !loadedByForge.contains(it.url()))
-            .map(it -> it.path.toAbsolutePath().toString())
+            .map(it -> it.file.toAbsolutePath().toString())
             .collect(Collectors.toList());
+        // The relaunch needs the manifests of everything on the class path to find tweakers, and the relaunched loader
+        // needs them again (for mostly the same jars) after the relaunch, so we read them all once and pass them on.
+        for (URL url : ((URLClassLoader) Launch.class.getClassLoader()).getURLs()) {
+            try {
+                File file = new File(url.toURI());
+                if (file.isFile()) {
+                    manifestIndex.get(file);
+                }
+            } catch (Exception e) {
+                // Not our job to complain, the relaunch will run into the same issue and report it properly
+                LOGGER.trace("Failed to read manifest from {}:", url, e);
+            }
+        }
+        relaunchInfo.manifests = manifestIndex;
         RelaunchInfo.put(relaunchInfo);
 
         Set<URL> priorityClassPath = new LinkedHashSet<>();
@@ -138,19 +201,64 @@ public class Loader {
             priorityClassPath.add(jarInfo.url());
         }
 
-        Relaunch.relaunch(priorityClassPath);
+        Relaunch.relaunch(priorityClassPath, manifestIndex);
         throw new AssertionError("relaunch should not return");
     }
 
+    /**
+     * Removes extracted jars which have not been used for a while.
+     * Must be called after all jars which we're going to load have been extracted.
+     */
+    private void collectGarbage() {
+        try {
+            GarbageCollector gc = new GarbageCollector(minecraftHome.resolve("essential").resolve("loader").resolve("gc.properties"));
+            jarStore.getUsedDirectories().forEach(gc::markUsed);
+            usedMixinExtrasDirectories.forEach(gc::markUsed);
+            // If we are a newer loader which an older one extracted from some mod, we must not remove ourselves
+            if (LOADED_STAGE2_PATH.toAbsolutePath().startsWith(jarStore.getRoot())) {
+                gc.markUsed(LOADED_STAGE2_PATH.toAbsolutePath().getParent());
+            }
+            gc.sweep(jarStore.getRoot(), Files::isDirectory, 0);
+            gc.sweep(mixinExtrasRoot, Files::isDirectory, 0);
+            gc.save();
+        } catch (Throwable t) {
+            LOGGER.warn("Failed to collect garbage:", t);
+        }
+    }
+
     private List<JarInfo> load(Collection<URL> sources) {
+        List<JarSource> paths = new ArrayList<>();
+        for (URL url : sources) {
+            Path path = getPath(url);
+            if (path != null) {
+                paths.add(JarSource.ofFile(path));
+            }
+        }
+
         List<JarInfo> topLevel = new ArrayList<>();
         Map<String, JarInfo> allVersions = new LinkedHashMap<>();
-        for (URL url : sources) {
-            JarInfo jarInfo = load(url, allVersions);
-            if (jarInfo != null) {
-                topLevel.add(jarInfo);
+        discoveryPool = new ForkJoinPool(Math.min(Runtime.getRuntime().availableProcessors(), MAX_DISCOVERY_THREADS), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Essential Loader Discovery Thread");
+            return thread;
+        }, null, false);
+        try {
+            // Start inspecting all jars (and, transitively, their nested jars) in parallel
+            for (JarSource path : paths) {
+                scanAsync(path);
             }
+            // Then go through them in order, exactly as if we had inspected them one after the other
+            for (JarSource path : paths) {
+                JarInfo jarInfo = load(null, path, null, allVersions);
+                if (jarInfo != null) {
+                    topLevel.add(jarInfo);
+                }
+            }
+        } finally {
+            // Note: Not interrupting remaining tasks (for jars we ended up not needing), that would close their channels
+            discoveryPool.shutdown();
         }
+        discoveryIndex.save();
 
         Map<String, JarInfo> latestJars = new HashMap<>();
         for (JarInfo info : allVersions.values()) {
@@ -184,8 +292,7 @@ public class Loader {
         return jars;
     }
 
-    private JarInfo load(URL url, Map<String, JarInfo> allVersions) {
-        Path path;
+    private static Path getPath(URL url) {
         try {
             URI uri = url.toURI();
             if (!"file".equals(uri.getScheme())) {
@@ -195,39 +302,31 @@ public class Loader {
             if (!file.exists() || !file.isFile()) {
                 return null;
             }
-            path = file.toPath().toAbsolutePath();
+            return file.toPath().toAbsolutePath();
         } catch (Exception e) {
             LOGGER.error("Failed to find path of {}:", url, e);
             return null;
         }
-
-        return load(null, path, null, allVersions);
     }
 
-    private JarInfo load(JarInfo parent, Path jar, JsonObject descriptor, Map<String, JarInfo> allVersions) {
-        assert(jar.getFileSystem() == FileSystems.getDefault());
-        assert(jar.isAbsolute());
+    private JarInfo load(JarInfo parent, JarSource jar, JsonObject descriptor, Map<String, JarInfo> allVersions) {
+        assert(jar.getPath().getFileSystem() == FileSystems.getDefault());
+        assert(jar.getPath().isAbsolute());
 
-        boolean hasStage1 = false;
-        String embeddedMixinExtrasVersion;
+        DiscoveryIndex.Entry scan = scanAsync(jar).join();
+        boolean hasStage1 = scan.hasStage1;
+        String embeddedMixinExtrasVersion = scan.mixinExtrasVersion;
 
-        try (FileSystem fileSystem = FileSystems.newFileSystem(jar, (ClassLoader) null)) {
-            Path modJsonPath = fileSystem.getPath(ESSENTIAL_MOD_JSON);
-            if (Files.exists(modJsonPath)) {
-                try (BufferedReader in = Files.newBufferedReader(modJsonPath)) {
-                    descriptor = GSON.fromJson(in, JsonObject.class);
-                }
-            }
+        if (scan.descriptor != null) {
+            descriptor = GSON.fromJson(scan.descriptor, JsonObject.class);
+        }
 
-            Path stage1Path = fileSystem.getPath(STAGE1_RESOURCE);
-            if (Files.exists(stage1Path)) {
-                hasStage1 = true;
-                checkForNewerLoaderInStage1(stage1Path);
+        if (hasStage1) {
+            try {
+                checkForNewerLoaderInStage1(jar, scan);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
-
-            embeddedMixinExtrasVersion = MixinExtrasExtractor.readMixinExtrasVersion(jar, fileSystem);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
 
         // If this mod doesn't have a essential.mod.json but does have stage1 jar, then it's likely a mod which used
@@ -235,10 +334,10 @@ public class Loader {
         // the Essential mod, so we need to synthesize a essential.mod.json file for it.
         // Special case being the raw stage0 file as it will appear when you depend on EssentialLoader in your
         // development environment, that one we want to just ignore.
-        if (descriptor == null && hasStage1 && !isRawStage0(jar)) {
+        if (descriptor == null && hasStage1 && !isRawStage0(scan)) {
             descriptor = new JsonObject();
             // We know neither its id nor version, so we use dummy values
-            descriptor.addProperty("id", guessId(jar));
+            descriptor.addProperty("id", guessId(jar, scan));
             descriptor.addProperty("version", "[unknown version]");
 
             // These old mods always implicitly depend on the Essential mod, so load that as a dependency
@@ -261,16 +360,12 @@ public class Loader {
                     // 2. if we have the same version as a proper Jar-in-Jar, we'll prefer using that
                     String version = embeddedMixinExtrasVersion
                         + ".from."
-                        + jar.getFileName().toString().replaceAll("[^A-Za-z0-9]", "_");
+                        + jar.getPath().getFileName().toString().replaceAll("[^A-Za-z0-9]", "_");
 
-                    Path extractedPath = Files.createTempFile("mixinextras-" + version + "-", ".jar");
-                    extractedPath.toFile().deleteOnExit();
-
-                    LOGGER.debug("Extracting MixinExtras from {} to {}", jar, extractedPath);
-                    MixinExtrasExtractor.extractMixinExtras(jar, extractedPath, embeddedMixinExtrasVersion);
+                    Path extractedPath = extractMixinExtras(jar, embeddedMixinExtrasVersion);
 
                     JarInfo info = new JarInfo();
-                    info.path = extractedPath;
+                    info.source = JarSource.ofFile(extractedPath);
                     info.id = "io.github.llamalad7:mixinextras-common";
                     info.version = version;
                     if (parent != null) parent.children.add(info);
@@ -306,7 +401,7 @@ public class Loader {
         }
 
         info = new JarInfo();
-        info.path = jar;
+        info.source = jar;
         info.id = id;
         info.version = version;
         if (parent != null) parent.children.add(info);
@@ -331,9 +426,9 @@ public class Loader {
 
         if (spec.has("class")) {
             String clsName = spec.getAsJsonPrimitive("class").getAsString();
-            LOGGER.trace("Loading {} from {}", clsName, outerJar.path);
+            LOGGER.trace("Loading {} from {}", clsName, outerJar.source);
             String producedJson;
-            try (URLClassLoader classLoader = new URLClassLoader(new URL[]{outerJar.path.toUri().toURL()}, getClass().getClassLoader())) {
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[]{getFile(outerJar.source).toUri().toURL()}, getClass().getClassLoader())) {
                 Supplier<String> supplier;
                 try {
                     //noinspection unchecked
@@ -368,21 +463,8 @@ public class Loader {
             } catch (InvalidPathException e) {
                 path = null;
             }
-            if (path == null) {
-                try (FileSystem fileSystem = FileSystems.newFileSystem(outerJar.path, (ClassLoader) null)) {
-                    Path innerJar = fileSystem.getPath(file);
-                    String name = innerJar.getFileName().toString();
-                    int extension = name.lastIndexOf('.');
-                    if (extension == -1) extension = name.length();
-                    path = Files.createTempFile(name.substring(0, extension) + "-", name.substring(extension));
-                    path.toFile().deleteOnExit();
-                    LOGGER.debug("Extracting {} to {}", innerJar, path);
-                    Files.copy(innerJar, path, REPLACE_EXISTING);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            load(outerJar, path, spec, allVersions);
+            JarSource source = path != null ? JarSource.ofFile(path) : getNestedAsync(outerJar.source, file).join();
+            load(outerJar, source, spec, allVersions);
             return;
         }
 
@@ -391,68 +473,264 @@ public class Loader {
         // the spec, so let's not complain.
         // If we don't though, then the spec is probably wrong, so let's print a warning about it.
         if (newerLoaderJar == null) {
-            LOGGER.warn("Unsupported jar specification `{}` containing neither `file` nor `class` found in `{}`. ", spec, outerJar.path);
+            LOGGER.warn("Unsupported jar specification `{}` containing neither `file` nor `class` found in `{}`. ", spec, outerJar.source);
         }
     }
 
-    private int latestStage1Version;
-    private void checkForNewerLoaderInStage1(Path stage1Jar) throws IOException {
-        int stage1Version = readStage1Version(stage1Jar);
-        if (stage1Version <= latestStage1Version) {
-            return; // stage1 jar is older than what we've previously tried, not even worth looking at embedded stage2
+    /**
+     * Starts inspecting the given jar on the {@link #discoveryPool} if that hasn't happened yet.
+     * Once inspected, the nested jars declared in its descriptor are extracted and inspected as well, such that by the
+     * time the serial discovery gets to them, ideally all that's left to do is joining the results.
+     */
+    private ForkJoinTask<DiscoveryIndex.Entry> scanAsync(JarSource jar) {
+        return scans.computeIfAbsent(jar.toString(), key -> discoveryPool.submit(() -> {
+            DiscoveryIndex.Entry scan = scan(jar);
+            if (!jar.isNested()) {
+                manifestIndex.put(jar.getPath(), scan);
+            }
+            try {
+                prefetchNestedJars(jar, scan);
+            } catch (Exception e) {
+                // Not our job to complain, the serial discovery will run into the same issue and report it properly
+                LOGGER.trace("Failed to prefetch nested jars of {}:", jar, e);
+            }
+            return scan;
+        }));
+    }
+
+    private void prefetchNestedJars(JarSource jar, DiscoveryIndex.Entry scan) {
+        if (scan.descriptor == null) {
+            return;
+        }
+        JsonElement jarsElement = GSON.fromJson(scan.descriptor, JsonObject.class).get("jars");
+        if (jarsElement == null || !jarsElement.isJsonArray()) {
+            return;
         }
-        latestStage1Version = stage1Version;
+        for (JsonElement jarElement : jarsElement.getAsJsonArray()) {
+            if (!jarElement.isJsonObject()) continue;
+            JsonElement fileElement = jarElement.getAsJsonObject().get("file");
+            if (fileElement == null || !fileElement.isJsonPrimitive()) continue;
+            String file = fileElement.getAsString();
+            try {
+                Path path = FileSystems.getDefault().getPath(file);
+                if (path.isAbsolute()) {
+                    scanAsync(JarSource.ofFile(path));
+                    continue;
+                }
+            } catch (InvalidPathException ignored) {
+            }
+            getNestedAsync(jar, file);
+        }
+    }
 
-        // ZipFileSystem doesn't support nested jars, so we need to extract it to a temporary file
-        Path tmpStage1Jar = Files.createTempFile("essential-loader-stage1-", ".jar");
+    /**
+     * Looks up the given nested jar on the {@link #discoveryPool} if that hasn't happened yet, and then starts
+     * inspecting it.
+     */
+    private ForkJoinTask<JarSource> getNestedAsync(JarSource outerJar, String file) {
+        return nestedJars.computeIfAbsent(Arrays.asList(outerJar.toString(), file), key -> discoveryPool.submit(() -> {
+            JarSource innerJar;
+            try {
+                innerJar = outerJar.getNested(file);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            scanAsync(innerJar);
+            return innerJar;
+        }));
+    }
+
+    private Path getFile(JarSource jar) {
         try {
-            Files.copy(stage1Jar, tmpStage1Jar, REPLACE_EXISTING);
+            return jar.toFile(jarStore);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            try (FileSystem fileSystem = FileSystems.newFileSystem(tmpStage1Jar, (ClassLoader) null)) {
-                Path stage2Path = fileSystem.getPath(STAGE2_RESOURCE);
-                if (!Files.exists(stage2Path)) return;
-                checkForNewerLoader(stage2Path);
+    /**
+     * Returns what we know about the given jar, either from the {@link DiscoveryIndex} if it hasn't changed since we
+     * last looked at it, or by reading it (in place, if it is nested) and looking at its content.
+     */
+    private DiscoveryIndex.Entry scan(JarSource jar) {
+        RawZipFile.Entry nestedEntry = jar.getEntry();
+        // Nested jars are identified by their content, so identical ones in different outer jars share the entry
+        String nestedKey = nestedEntry != null ? String.format("nested:%08x-%d", nestedEntry.getCrc(), nestedEntry.getSize()) : null;
+
+        DiscoveryIndex.Entry entry = nestedKey != null
+            ? discoveryIndex.get(nestedKey, nestedEntry.getSize(), nestedEntry.getCrc())
+            : discoveryIndex.get(jar.getPath());
+        if (entry != null) {
+            return entry;
+        }
+
+        entry = new DiscoveryIndex.Entry();
+        try {
+            BasicFileAttributes attributes = nestedKey == null
+                ? Files.readAttributes(jar.getPath(), BasicFileAttributes.class)
+                : null;
+
+            try (RawZipFile zip = jar.open()) {
+                RawZipFile.Entry modJsonEntry = zip.getEntry(ESSENTIAL_MOD_JSON);
+                if (modJsonEntry != null) {
+                    entry.descriptor = new String(zip.readAllBytes(modJsonEntry), UTF_8);
+                }
+
+                RawZipFile.Entry stage1Entry = zip.getEntry(STAGE1_RESOURCE);
+                if (stage1Entry != null) {
+                    byte[] stage1Bytes = zip.readAllBytes(stage1Entry);
+                    entry.hasStage1 = true;
+                    entry.stage1Version = readStage1Version(stage1Bytes, jar);
+                    entry.stage2Version = readStage2VersionInStage1(stage1Bytes, jar);
+                }
+
+                entry.mixinExtrasVersion = MixinExtrasExtractor.readMixinExtrasVersion(zip);
+                entry.containerMarker = zip.getEntry("essential_container_marker.txt") != null;
+
+                // Nested jars are never on the class path themselves, so only the manifests of top-level jars are of
+                // interest (to us, and to the relaunch, see ManifestIndex)
+                if (!jar.isNested()) {
+                    readManifest(zip, entry);
+                }
             }
-        } finally {
-            Files.delete(tmpStage1Jar);
+
+            if (nestedKey != null) {
+                discoveryIndex.put(nestedKey, nestedEntry.getSize(), nestedEntry.getCrc(), entry);
+            } else {
+                discoveryIndex.put(jar.getPath(), attributes, entry);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        return entry;
     }
 
-    private void checkForNewerLoader(Path stage2Jar) throws IOException {
-        String version = readStage2Version(stage2Jar);
+    private int latestStage1Version;
+    private void checkForNewerLoaderInStage1(JarSource jar, DiscoveryIndex.Entry scan) throws IOException {
+        if (scan.stage1Version <= latestStage1Version) {
+            return; // stage1 jar is older than what we've previously tried, not even worth looking at embedded stage2
+        }
+        latestStage1Version = scan.stage1Version;
+
+        String version = scan.stage2Version;
         if (version == null) return;
 
         if (compareVersions(version, latestLoaderJarVersion) <= 0) {
-            return; // given jar isn't an upgrade, nothing to do
+            return; // embedded jar isn't an upgrade, nothing to do
+        }
+
+        // Extract it, because the embedded jar can't be loaded directly
+        Path extractedJar;
+        try (RawZipFile zip = jar.open()) {
+            RawZipFile.Entry stage1Entry = zip.getEntry(STAGE1_RESOURCE);
+            if (stage1Entry == null) return;
+            try (RawZipFile stage1Zip = new RawZipFile(jar.getPath().resolve(STAGE1_RESOURCE), zip.readAllBytes(stage1Entry))) {
+                RawZipFile.Entry stage2Entry = stage1Zip.getEntry(STAGE2_RESOURCE);
+                if (stage2Entry == null) return;
+                extractedJar = jarStore.extract(stage1Zip, stage2Entry);
+            }
         }
 
-        // Copy to temporary file, because we don't know how long the given path will remain valid for
-        Path copiedJar = Files.createTempFile("essential-loader-stage2-", ".jar");
-        copiedJar.toFile().deleteOnExit();
-        Files.copy(stage2Jar, copiedJar, REPLACE_EXISTING);
-
-        newerLoaderJar = copiedJar;
+        newerLoaderJar = extractedJar;
         latestLoaderJarVersion = version;
     }
 
-    private static int readStage1Version(Path path) {
-        String str = readImplementationVersion(path, STAGE1_PKG_PATH);
+    /**
+     * Returns a jar containing only the MixinExtras classes from the given jar, re-using the one extracted during a
+     * previous boot if those classes have not changed since.
+     */
+    private Path extractMixinExtras(JarSource jar, String version) throws IOException {
+        try (RawZipFile zip = jar.open()) {
+            long hash = MixinExtrasExtractor.hashMixinExtras(zip);
+            String safeVersion = version.replaceAll("[^A-Za-z0-9.-]", "_");
+            Path dir = mixinExtrasRoot.resolve(String.format("%s-%08x", safeVersion, hash));
+            Path extractedJar = dir.resolve("mixinextras-" + safeVersion + ".jar");
+            usedMixinExtrasDirectories.add(dir);
+
+            if (isValidMixinExtrasJar(extractedJar, hash)) {
+                return extractedJar;
+            }
+
+            LOGGER.debug("Extracting MixinExtras from {} to {}", jar, extractedJar);
+            Files.createDirectories(dir);
+            // Write to tmp jar first, so we do not leave behind incomplete jars
+            Path tmpJar = Files.createTempFile(dir, "tmp", ".jar");
+            try {
+                MixinExtrasExtractor.extractMixinExtras(zip, tmpJar, version);
+                try {
+                    Files.move(tmpJar, extractedJar, ATOMIC_MOVE, REPLACE_EXISTING);
+                } catch (IOException e) {
+                    // Someone else (e.g. another instance of the game) may have beaten us to it
+                    if (isValidMixinExtrasJar(extractedJar, hash)) {
+                        return extractedJar;
+                    }
+                    throw e;
+                }
+            } finally {
+                Files.deleteIfExists(tmpJar);
+            }
+            return extractedJar;
+        }
+    }
+
+    private static boolean isValidMixinExtrasJar(Path jar, long expectedHash) {
+        if (!Files.isRegularFile(jar)) {
+            return false;
+        }
+        try (RawZipFile zip = new RawZipFile(jar)) {
+            return MixinExtrasExtractor.hashMixinExtras(zip) == expectedHash;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to verify previously extracted " + jar + ":", e);
+            return false;
+        }
+    }
+
+    /**
+     * Opens a stream of the stage2 jar embedded in the given stage1 jar, or returns {@code null} if there is none.
+     */
+    private static InputStream openStage2InStage1(byte[] stage1Jar) throws IOException {
+        ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(stage1Jar));
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null) {
+            if (STAGE2_RESOURCE.equals(entry.getName())) {
+                return in;
+            }
+        }
+        return null;
+    }
+
+    private static int readStage1Version(byte[] stage1Jar, JarSource source) {
+        String str = readImplementationVersion(new ByteArrayInputStream(stage1Jar), STAGE1_PKG_PATH, source);
         if (str == null) return -1;
         try {
             return Integer.parseInt(str);
         } catch (Exception e) {
-            LOGGER.error("Failed to parse version from " + path, e);
+            LOGGER.error("Failed to parse version from stage1 in " + source, e);
             return -1;
         }
     }
 
     private static String readStage2Version(Path path) {
-        return readImplementationVersion(path, STAGE2_PKG_PATH);
+        try (InputStream in = Files.newInputStream(path)) {
+            return readImplementationVersion(in, STAGE2_PKG_PATH, path);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read implementation version from " + path, e);
+            return null;
+        }
+    }
+
+    private static String readStage2VersionInStage1(byte[] stage1Jar, JarSource source) {
+        try (InputStream in = openStage2InStage1(stage1Jar)) {
+            if (in == null) return null;
+            return readImplementationVersion(in, STAGE2_PKG_PATH, source);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read stage2 jar from stage1 in " + source, e);
+            return null;
+        }
     }
 
-    private static String readImplementationVersion(Path jar, String name) {
-        try (InputStream rawIn = Files.newInputStream(jar);
-             JarInputStream in = new JarInputStream(rawIn, false)) {
+    private static String readImplementationVersion(InputStream rawIn, String name, Object source) {
+        try (JarInputStream in = new JarInputStream(rawIn, false)) {
             Manifest manifest = in.getManifest();
             if (manifest == null) {
                 return null;
@@ -463,45 +741,49 @@ public class Loader {
             }
             return attributes.getValue("Implementation-Version");
         } catch (Exception e) {
-            LOGGER.error("Failed to read implementation version from " + jar, e);
+            LOGGER.error("Failed to read implementation version from " + source, e);
             return null;
         }
     }
 
-    private static boolean isRawStage0(Path jar) {
+    private static boolean isRawStage0(DiscoveryIndex.Entry scan) {
         // If this flag is set, then install the Essential mod in dev too
         if (Boolean.getBoolean("essential.loader.installEssentialMod")) {
             return false;
         }
-        try (InputStream rawIn = Files.newInputStream(jar);
-             JarInputStream in = new JarInputStream(rawIn, false)) {
-            Manifest manifest = in.getManifest();
-            if (manifest == null) {
-                return false;
+        return scan.notImplicitlyDependingOnEssential;
+    }
+
+    private static void readManifest(RawZipFile jar, DiscoveryIndex.Entry entry) {
+        RawZipFile.Entry manifestEntry = jar.getEntry(JarFile.MANIFEST_NAME);
+        if (manifestEntry == null) {
+            return;
+        }
+        try (InputStream in = jar.getInputStream(manifestEntry)) {
+            Attributes attributes = new Manifest(in).getMainAttributes();
+            // Only needed for old mods without essential.mod.json, see `isRawStage0`
+            if (entry.hasStage1 && entry.descriptor == null) {
+                entry.notImplicitlyDependingOnEssential = "false".equals(attributes.getValue("ImplicitlyDependsOnEssential"));
             }
-            Attributes attributes = manifest.getMainAttributes();
-            return "false".equals(attributes.getValue("ImplicitlyDependsOnEssential"));
+            entry.tweakClass = attributes.getValue("TweakClass");
+            entry.fmlCorePlugin = attributes.getValue("FMLCorePlugin");
+            entry.hasMixinConfigs = attributes.getValue("MixinConfigs") != null;
         } catch (Exception e) {
-            LOGGER.error("Failed to read manifest from " + jar, e);
-            return false;
+            LOGGER.error("Failed to read manifest from " + jar.getPath(), e);
         }
     }
 
-    private String guessId(Path jar) {
-        try (FileSystem fileSystem = FileSystems.newFileSystem(jar, (ClassLoader) null)) {
-            if (Files.exists(fileSystem.getPath("essential_container_marker.txt"))) {
-                return "essential-container";
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    private String guessId(JarSource jar, DiscoveryIndex.Entry scan) {
+        if (scan.containerMarker) {
+            return "essential-container";
         }
 
-        String relPath = minecraftHome.relativize(jar).toString();
+        String relPath = minecraftHome.relativize(jar.getPath()).toString();
         if (!relPath.startsWith("..")) {
             return relPath;
         }
 
-        return jar.toString();
+        return jar.getPath().toString();
     }
 
     private static void prettyPrint(StringBuilder sb, String childIndent, JarInfo jar, Set<String> visited, Map<String, JarInfo> latestVersions) {
@@ -533,14 +815,16 @@ public class Loader {
     private static class JarInfo {
         List<JarInfo> children = new ArrayList<>();
 
-        Path path;
+        JarSource source;
+        /** File containing this jar, only set once we know that we'll actually load it, see {@link #relaunch}. */
+        Path file;
 
         String id;
         String version;
 
         URL url() {
             try {
-                return path.toUri().toURL();
+                return file.toUri().toURL();
             } catch (MalformedURLException e) {
                 throw new RuntimeException(e);
             }
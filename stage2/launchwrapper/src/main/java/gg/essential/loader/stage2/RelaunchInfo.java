@@ -1,6 +1,7 @@
 package gg.essential.loader.stage2;
 
 import com.google.gson.Gson;
+import gg.essential.loader.stage2.util.ManifestIndex;
 
 import java.util.List;
 import java.util.Set;
@@ -8,6 +9,7 @@ import java.util.Set;
 class RelaunchInfo {
     public Set<String> loadedIds;
     public List<String> extraMods;
+    public ManifestIndex manifests;
 
     private static String PROPERTY = "gg.essential.loader.stage2.relaunch-info";
 
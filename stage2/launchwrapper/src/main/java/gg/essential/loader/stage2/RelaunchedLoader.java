@@ -5,6 +5,7 @@ import gg.essential.loader.stage2.compat.ForgeJarDiscovererTransformer;
 import gg.essential.loader.stage2.compat.PhosphorTransformer;
 import gg.essential.loader.stage2.compat.ThreadUnsafeTransformersListWorkaround;
 import gg.essential.loader.stage2.compat.tweaker.BetterFpsWrappingTweaker;
+import gg.essential.loader.stage2.util.ManifestIndex;
 import gg.essential.loader.stage2.util.MixinTweakerInjector;
 import net.minecraft.launchwrapper.ITweaker;
 import net.minecraft.launchwrapper.Launch;
@@ -25,8 +26,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.jar.Attributes;
-import java.util.jar.JarFile;
 
 public class RelaunchedLoader {
     private static final Logger LOGGER = LogManager.getLogger(RelaunchedLoader.class);
@@ -38,7 +37,8 @@ public class RelaunchedLoader {
     RelaunchedLoader(RelaunchInfo relaunchInfo) {
         this.relaunchInfo = relaunchInfo;
 
-        sourceFiles = SourceFile.readInfos(Launch.classLoader.getSources());
+        ManifestIndex manifests = relaunchInfo.manifests != null ? relaunchInfo.manifests : new ManifestIndex();
+        sourceFiles = SourceFile.readInfos(Launch.classLoader.getSources(), manifests);
 
         if (relaunchInfo.loadedIds.contains("mixin") || /* older versions of */ relaunchInfo.loadedIds.contains("essential")) {
             MixinTweakerInjector.injectMixinTweaker(true);
@@ -222,22 +222,12 @@ public class RelaunchedLoader {
             this.mixin = mixin;
         }
 
-        public static SourceFile readInfo(File file) throws IOException {
-            String tweakClass = null;
-            String coreMod = null;
-            boolean mixin = false;
-            try (JarFile jar = new JarFile(file)) {
-                if (jar.getManifest() != null) {
-                    Attributes attributes = jar.getManifest().getMainAttributes();
-                    tweakClass = attributes.getValue("TweakClass");
-                    coreMod = attributes.getValue("FMLCorePlugin");
-                    mixin = attributes.getValue("MixinConfigs") != null;
-                }
-            }
-            return new SourceFile(file, tweakClass, coreMod, mixin);
+        public static SourceFile readInfo(File file, ManifestIndex manifests) throws IOException {
+            ManifestIndex.Entry manifest = manifests.get(file);
+            return new SourceFile(file, manifest.tweakClass, manifest.fmlCorePlugin, manifest.hasMixinConfigs);
         }
 
-        public static List<SourceFile> readInfos(Collection<URL> urls) {
+        public static List<SourceFile> readInfos(Collection<URL> urls, ManifestIndex manifests) {
             List<SourceFile> sourceFiles = new ArrayList<>();
             for (URL url : urls) {
                 try {
@@ -249,7 +239,7 @@ public class RelaunchedLoader {
                     if (!file.exists() || !file.isFile()) {
                         continue;
                     }
-                    sourceFiles.add(readInfo(file));
+                    sourceFiles.add(readInfo(file, manifests));
                 } catch (Exception e) {
                     LOGGER.error("Failed to read manifest from " + url + ":", e);
                 }
@@ -0,0 +1,242 @@
+package gg.essential.loader.stage2.relaunch;
+
+import gg.essential.loader.stage2.util.GarbageCollector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records which classes are defined by the {@link RelaunchClassLoader} (and how long that takes), so future boots with
+ * the same class path can make use of that list.
+ * <p>
+ * Recording is opt-in via the {@code essential.loader.relaunch.recordClassList} system property. The list is written
+ * on shutdown to {@code essential/loader/relaunch/<class path hash>.classlist}, together with a summary of the time
+ * spent loading classes, which can be used to compare boots with and without other options.
+ * <p>
+ * With the {@code essential.loader.relaunch.cds} system property (which implies recording), the flags required to
+ * have the JVM create and use a dynamic class data sharing archive for the relaunched class path are logged as well.
+ * The loader itself cannot apply these because the relaunch happens within the existing JVM, so they need to be
+ * passed by the launcher. Since Java 13 such an archive also covers classes defined by custom class loaders like ours,
+ * as long as the class bytes are identical, allowing the JVM to skip parsing and verifying them a second time.
+ */
+class ClassList {
+    private static final Logger LOGGER = LogManager.getLogger(ClassList.class);
+
+    static final String RECORD_PROPERTY = "essential.loader.relaunch.recordClassList";
+    static final String CDS_PROPERTY = "essential.loader.relaunch.cds";
+
+    private final Path file;
+    private final Queue<String> recorded = new ConcurrentLinkedQueue<>();
+    private final AtomicLong recordedNanos = new AtomicLong();
+    /**
+     * Time spent in nested class loads on the current thread (defining a class loads its super types first), so each
+     * class is only accounted for the time spent on itself, and the total does not count nested loads twice.
+     */
+    private final ThreadLocal<long[]> nestedNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    private ClassList(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the file which holds the class list for the given class path.
+     */
+    static Path getFile(Path gameDir, URL[] classPath) {
+        return getDirectory(gameDir).resolve(hash(classPath) + ".classlist");
+    }
+
+    private static Path getDirectory(Path gameDir) {
+        return gameDir.resolve("essential").resolve("loader").resolve("relaunch");
+    }
+
+    /**
+     * Reads the class list recorded during a previous boot with the same class path, or returns an empty list if
+     * there is none.
+     */
+    static List<String> read(Path file) {
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        try {
+            List<String> names = new ArrayList<>();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    names.add(line);
+                }
+            }
+            return names;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read class list from " + file + ":", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns whether a class list should be recorded, see {@link #startRecording(Path, Path)}.
+     */
+    static boolean isRecordingEnabled() {
+        return Boolean.getBoolean(CDS_PROPERTY) || Boolean.getBoolean(RECORD_PROPERTY);
+    }
+
+    /**
+     * Starts recording a class list to the given file (see {@link #getFile(Path, URL[])}).
+     * Should only be called if {@link #isRecordingEnabled() enabled}.
+     */
+    static ClassList startRecording(Path gameDir, Path file) {
+        Path dir = getDirectory(gameDir);
+        Path archive = file.resolveSibling(file.getFileName().toString().replace(".classlist", ".jsa"));
+        if (Boolean.getBoolean(CDS_PROPERTY)) {
+            logCdsFlags(archive);
+        }
+
+        ClassList classList = new ClassList(file);
+        Thread thread = new Thread(() -> {
+            classList.save();
+
+            GarbageCollector gc = new GarbageCollector(gameDir.resolve("essential").resolve("loader").resolve("gc.properties"));
+            gc.markUsed(classList.file);
+            gc.markUsed(archive);
+            gc.sweep(dir, path -> true, 0);
+            gc.save();
+        }, "Essential Loader Class List Writer");
+        Runtime.getRuntime().addShutdownHook(thread);
+        return classList;
+    }
+
+    /**
+     * Defines a class via the given function and records it, together with the time spent on it (excluding any classes
+     * which are loaded while doing so).
+     */
+    Class<?> record(String name, ClassDefiner definer) throws ClassNotFoundException {
+        long[] nested = nestedNanos.get();
+        long outerNested = nested[0];
+        nested[0] = 0;
+        long start = System.nanoTime();
+        Class<?> cls;
+        try {
+            cls = definer.define();
+        } finally {
+            long total = System.nanoTime() - start;
+            long ownNanos = total - nested[0];
+            nested[0] = outerNested + total;
+            // Only record classes which we actually defined, but account the time either way, so failed nested
+            // loads are not counted towards the outer class
+            recordedNanos.addAndGet(ownNanos);
+        }
+        recorded.add(name);
+        return cls;
+    }
+
+    interface ClassDefiner {
+        Class<?> define() throws ClassNotFoundException;
+    }
+
+    private void save() {
+        List<String> names = new ArrayList<>(recorded);
+        long millis = TimeUnit.NANOSECONDS.toMillis(recordedNanos.get());
+        LOGGER.info("Relaunch class loader defined {} classes, spending {}ms loading and transforming them.", names.size(), millis);
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path tempFile = Files.createTempFile(file.getParent(), "tmp-", ".classlist");
+            try {
+                try (Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                    out.write("# " + names.size() + " classes, " + millis + "ms\n");
+                    for (String name : names) {
+                        out.write(name);
+                        out.write('\n');
+                    }
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write class list to " + file + ":", e);
+        }
+    }
+
+    private static void logCdsFlags(Path archive) {
+        int javaVersion = getJavaVersion();
+        if (javaVersion < 13) {
+            LOGGER.warn("Class data sharing for the relaunched class path requires Java 13 or newer, running on {}.", javaVersion);
+            return;
+        }
+
+        List<String> flags = new ArrayList<>();
+        if (javaVersion >= 19) {
+            flags.add("-XX:+AutoCreateSharedArchive");
+            flags.add("-XX:SharedArchiveFile=" + archive);
+        } else if (Files.exists(archive)) {
+            flags.add("-XX:SharedArchiveFile=" + archive);
+        } else {
+            flags.add("-XX:ArchiveClassesAtExit=" + archive);
+        }
+
+        List<String> jvmArgs = ManagementFactory.getRuntimeMXBean().getInputArguments();
+        if (jvmArgs.containsAll(flags)) {
+            LOGGER.info("Class data sharing archive for the relaunched class path: {}", archive);
+        } else {
+            LOGGER.warn("To use class data sharing for the relaunched class path, add these JVM arguments: {}", String.join(" ", flags));
+        }
+    }
+
+    private static int getJavaVersion() {
+        String version = System.getProperty("java.specification.version", "1.8");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 8;
+        }
+    }
+
+    /**
+     * Hashes the given class path, including the size and modification time of each file, so the hash changes when
+     * any of the jars are updated in place.
+     */
+    private static String hash(URL[] classPath) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        for (URL url : classPath) {
+            digest.update(url.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                File file = new File(url.toURI());
+                digest.update((file.length() + ":" + file.lastModified() + "\n").getBytes(StandardCharsets.UTF_8));
+            } catch (URISyntaxException | IllegalArgumentException ignored) {
+                // not a file
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        byte[] bytes = digest.digest();
+        for (int i = 0; i < 8; i++) {
+            sb.append(String.format("%02x", bytes[i]));
+        }
+        return sb.toString();
+    }
+}
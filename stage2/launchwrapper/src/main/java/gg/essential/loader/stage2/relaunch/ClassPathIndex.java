@@ -0,0 +1,155 @@
+package gg.essential.loader.stage2.relaunch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Index of which jars on a class path contain which packages (i.e. folders), built once from the central directories
+ * of all jars, so finding a class or resource only requires looking at the (usually one) jar which contains its package
+ * instead of probing every jar in order.
+ * <p>
+ * Since the index is complete for the given class path, it also answers misses without looking at any jar.
+ * <p>
+ * Only available if the class path consists entirely of jar files, see {@link #create(URL[])}.
+ * The jars are kept open for as long as the index is in use (which usually is until the game exits).
+ */
+class ClassPathIndex {
+    private static final Logger LOGGER = LogManager.getLogger(ClassPathIndex.class);
+    private static final int[] NONE = new int[0];
+
+    private final URL[] urls;
+    private final JarFile[] jars;
+    private final Map<String, int[]> packages;
+
+    private ClassPathIndex(URL[] urls, JarFile[] jars, Map<String, int[]> packages) {
+        this.urls = urls;
+        this.jars = jars;
+        this.packages = packages;
+    }
+
+    /**
+     * Builds the index for the given class path, or returns {@code null} if it contains anything other than jar files
+     * (e.g. folders in development environments), if any of them cannot be read, or if any of them declare a
+     * {@code Class-Path} in their manifest (which {@link java.net.URLClassLoader} would follow but we do not).
+     */
+    static ClassPathIndex create(URL[] urls) {
+        File[] files = new File[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            try {
+                files[i] = new File(urls[i].toURI());
+            } catch (Exception e) {
+                return null;
+            }
+            if (!files[i].isFile()) {
+                return null;
+            }
+        }
+
+        JarFile[] jars = new JarFile[urls.length];
+        Map<String, int[]> packages = new HashMap<>();
+        try {
+            for (int i = 0; i < files.length; i++) {
+                jars[i] = new JarFile(files[i], false);
+                Manifest manifest = jars[i].getManifest();
+                if (manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null) {
+                    LOGGER.debug("{} declares a Class-Path, not indexing class path.", files[i]);
+                    closeAll(jars);
+                    return null;
+                }
+                Enumeration<? extends ZipEntry> entries = jars[i].entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    String pkg = getPackage(name);
+                    int[] indices = packages.getOrDefault(pkg, NONE);
+                    if (indices.length == 0 || indices[indices.length - 1] != i) {
+                        indices = Arrays.copyOf(indices, indices.length + 1);
+                        indices[indices.length - 1] = i;
+                        packages.put(pkg, indices);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to index class path, falling back to regular lookups:", e);
+            closeAll(jars);
+            return null;
+        }
+        return new ClassPathIndex(urls, jars, packages);
+    }
+
+    private static void closeAll(JarFile[] jars) {
+        for (JarFile jar : jars) {
+            if (jar == null) continue;
+            try {
+                jar.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first jar which contains the given entry, or -1 if there is no such jar.
+     */
+    int find(String name) {
+        for (int i : packages.getOrDefault(getPackage(name), NONE)) {
+            if (jars[i].getEntry(name) != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the indices of all jars which contain the given entry, in class path order.
+     */
+    List<Integer> findAll(String name) {
+        List<Integer> result = new ArrayList<>(1);
+        for (int i : packages.getOrDefault(getPackage(name), NONE)) {
+            if (jars[i].getEntry(name) != null) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a URL for the given entry in the given jar, equivalent to the one {@link java.net.URLClassLoader} would
+     * return for it.
+     */
+    URL getResourceUrl(int index, String name) {
+        try {
+            return new URL("jar:" + urls[index] + "!/" + new URI(null, null, name, null).getRawPath());
+        } catch (MalformedURLException | URISyntaxException e) {
+            return null;
+        }
+    }
+
+    URL getUrl(int index) {
+        return urls[index];
+    }
+
+    JarFile getJar(int index) {
+        return jars[index];
+    }
+
+    private static String getPackage(String name) {
+        int i = name.lastIndexOf('/');
+        return i == -1 ? "" : name.substring(0, i);
+    }
+}
@@ -0,0 +1,95 @@
+package gg.essential.loader.stage2.relaunch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Defines the classes from a {@link ClassList} recorded during a previous boot on background threads, so by the time
+ * the main thread gets to them, most of them are already loaded.
+ * <p>
+ * Opt-in via the {@code essential.loader.relaunch.preload} system property (requires a class list to have been
+ * recorded via {@link ClassList#RECORD_PROPERTY} before). Classes are only defined, not initialized, so this does not
+ * run any of their code.
+ */
+class ClassPreloader {
+    private static final Logger LOGGER = LogManager.getLogger(ClassPreloader.class);
+
+    static final String PRELOAD_PROPERTY = "essential.loader.relaunch.preload";
+    private static final int MAX_THREADS = 4;
+
+    private final RelaunchClassLoader classLoader;
+    private final List<String> names;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger remainingThreads = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+
+    private ClassPreloader(RelaunchClassLoader classLoader, List<String> names) {
+        this.classLoader = classLoader;
+        this.names = names;
+    }
+
+    /**
+     * Returns whether classes should be preloaded, so the class list only needs to be read if they are.
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean(PRELOAD_PROPERTY);
+    }
+
+    /**
+     * Starts preloading the given classes. Should only be called if {@link #isEnabled() enabled}.
+     */
+    static void start(RelaunchClassLoader classLoader, List<String> classList) {
+        List<String> names = new ArrayList<>(classList.size());
+        for (String name : classList) {
+            // Excluded classes come from the parent anyway, and transformed classes are cheap to get from the cache
+            // (and we would rather not pull ASM in early if they are not)
+            if (classLoader.isClassExcluded(name) || RelaunchTransformer.isTarget(name)) {
+                continue;
+            }
+            names.add(name);
+        }
+        if (names.isEmpty()) {
+            LOGGER.debug("No class list recorded for the current class path, not preloading any classes.");
+            return;
+        }
+
+        // Leave one core for the main thread, which will be loading classes as well
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        LOGGER.debug("Preloading {} classes on {} threads.", names.size(), threads);
+
+        ClassPreloader preloader = new ClassPreloader(classLoader, names);
+        preloader.remainingThreads.set(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(preloader::run, "Essential Loader Class Preloader " + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        int index;
+        // Each thread takes the next class in the list, so we roughly follow the order in which the main thread will
+        // need them
+        while ((index = nextIndex.getAndIncrement()) < names.size()) {
+            String name = names.get(index);
+            try {
+                Class.forName(name, false, classLoader);
+            } catch (Throwable t) {
+                // The class path is the same, but the game may still decide to not load some classes this time.
+                // Either way, this is merely an optimization, so we can just ignore it, the main thread will report any
+                // actual issues.
+                LOGGER.trace("Failed to preload " + name + ":", t);
+                failures.incrementAndGet();
+            }
+        }
+        if (remainingThreads.decrementAndGet() == 0) {
+            LOGGER.debug("Finished preloading {} classes in {}ms ({} failed).",
+                names.size(), (System.nanoTime() - startNanos) / 1_000_000, failures.get());
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package gg.essential.loader.stage2.relaunch;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterators;
 
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -37,8 +40,27 @@ class IsolatedClassLoader extends URLClassLoader {
             "org.apache.logging.slf4j." // Needs to be loaded by us because it references code from `org.slf4j`, which is not excluded, leading to duplicate class definitions.
     );
 
+    private static final int EXCLUDED = 1;
+    private static final int INCLUDED = 2;
+    private static final int MAX_MISSING_CLASSES = 4096;
+
+    /** {@link #exclusions} and {@link #explicitInclusions} compiled into a single trie. */
+    private final PrefixTrie exclusionTrie = new PrefixTrie();
+
     private final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
 
+    /**
+     * Classes which we have previously failed to find. Some mods probe for the presence of optional classes over and
+     * over again, and each of those probes would otherwise need to search the whole class path again.
+     * Only contains classes for which the miss is definitive, see {@link #isMissDefinitive(String)}, and is only used
+     * while we have an {@link #index}.
+     * The value is the amount of urls of the {@link #delegateParent} at the time of the miss (see
+     * {@link #getParentUrlCount()}), so entries are ignored once urls have been added to it.
+     */
+    private final Cache<String, Integer> missingClasses = CacheBuilder.newBuilder()
+        .maximumSize(MAX_MISSING_CLASSES)
+        .build();
+
     /**
      * The conceptual (but not actual) parent of this class loader.
      *
@@ -48,10 +70,26 @@ class IsolatedClassLoader extends URLClassLoader {
      */
     private final ClassLoader delegateParent;
 
+    /**
+     * Index of our class path, so we do not need to probe every single jar for each class and resource.
+     * Null if the class path cannot be indexed, in which case we fall back to the regular {@link URLClassLoader} lookup.
+     * The index only covers the urls we were constructed with, so it is dropped if any more are added, see
+     * {@link #addURL(URL)}. Callers need to read this field once and then work with that value.
+     */
+    protected volatile ClassPathIndex index;
+
     public IsolatedClassLoader(URL[] urls, ClassLoader parent) {
         super(urls, new EmptyClassLoader(parent));
 
         this.delegateParent = parent;
+        this.index = ClassPathIndex.create(urls);
+
+        for (String exclusion : exclusions) {
+            exclusionTrie.add(exclusion, EXCLUDED);
+        }
+        for (String inclusion : explicitInclusions) {
+            exclusionTrie.add(inclusion, INCLUDED);
+        }
     }
 
     @Override
@@ -62,6 +100,13 @@ class IsolatedClassLoader extends URLClassLoader {
             return cls;
         }
 
+        if (index != null) {
+            Integer parentUrlCount = missingClasses.getIfPresent(name);
+            if (parentUrlCount != null && parentUrlCount == getParentUrlCount()) {
+                throw new ClassNotFoundException(name);
+            }
+        }
+
         // For excluded classes, use the parent class loader
         if (isClassExcluded(name)) {
             cls = delegateParent.loadClass(name);
@@ -78,7 +123,16 @@ class IsolatedClassLoader extends URLClassLoader {
 
             // If the have not yet defined the class, let's do that
             if (cls == null) {
-                cls = findClassImpl(name);
+                try {
+                    cls = findClassImpl(name);
+                } catch (ClassNotFoundException e) {
+                    // Read before checking, so if urls are added concurrently, we err on the side of not using the entry
+                    int parentUrlCount = getParentUrlCount();
+                    if (isMissDefinitive(name)) {
+                        missingClasses.put(name, parentUrlCount);
+                    }
+                    throw e;
+                }
             }
 
             // Class loaded successfully, store it in our map so we can take the fast path in the future
@@ -88,18 +142,34 @@ class IsolatedClassLoader extends URLClassLoader {
         }
     }
 
-    private boolean isClassExcluded(String name) {
-        for (String inclusion : explicitInclusions) {
-            if (name.startsWith(inclusion)) {
-                return false;
-            }
-        }
-        for (String exclusion : exclusions) {
-            if (name.startsWith(exclusion)) {
-                return true;
-            }
+    /**
+     * Returns whether {@link #findClassImpl(String)} failing to find the given class means that it will never be able
+     * to find it (at least until more urls are added).
+     * That is only the case if our {@link #index} (which covers our entire class path) does not contain the class, and
+     * {@link #findClassImpl(String)} does not look anywhere else, or only in the parent class loader, so long as that
+     * is a {@link URLClassLoader} (whose urls are checked again on every use of the cache, see
+     * {@link #getParentUrlCount()}).
+     */
+    protected boolean isMissDefinitive(String name) {
+        ClassPathIndex index = this.index;
+        return index != null && index.find(name.replace('.', '/') + ".class") == -1;
+    }
+
+    /**
+     * Returns the amount of urls of the {@link #delegateParent}, or -1 if it is not a {@link URLClassLoader}.
+     * Urls can only ever be added (e.g. by tweakers calling {@code addURL} on the system class loader), never removed,
+     * so if this is unchanged, so is the parent's class path.
+     */
+    protected int getParentUrlCount() {
+        if (delegateParent instanceof URLClassLoader) {
+            return ((URLClassLoader) delegateParent).getURLs().length;
         }
-        return false;
+        return -1;
+    }
+
+    boolean isClassExcluded(String name) {
+        int flags = exclusionTrie.match(name);
+        return (flags & INCLUDED) == 0 && (flags & EXCLUDED) != 0;
     }
 
     // We redirect this method to our loadClass (which checks the parent for exclusions) because our loadClass is not
@@ -122,6 +192,48 @@ class IsolatedClassLoader extends URLClassLoader {
         return super.findClass(name);
     }
 
+    // Usually only called via reflection, e.g. by tweakers which add themselves to `Launch.class.getClassLoader()`.
+    @Override
+    protected void addURL(URL url) {
+        // Drop the index first, so there is no window where the url is part of our class path but lookups still go
+        // through the (now incomplete) index. We do not close its jars because other threads may still be using them.
+        index = null;
+        super.addURL(url);
+        // Classes which were missing may be in the new jar
+        missingClasses.invalidateAll();
+    }
+
+    @Override
+    public URL findResource(String name) {
+        ClassPathIndex index = this.index;
+        if (index == null) {
+            return super.findResource(name);
+        }
+        int jar = index.find(name);
+        if (jar == -1) {
+            return null;
+        }
+        URL url = index.getResourceUrl(jar, name);
+        return url != null ? url : super.findResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        ClassPathIndex index = this.index;
+        if (index == null) {
+            return super.findResources(name);
+        }
+        List<URL> urls = new ArrayList<>();
+        for (int jar : index.findAll(name)) {
+            URL url = index.getResourceUrl(jar, name);
+            if (url == null) {
+                return super.findResources(name);
+            }
+            urls.add(url);
+        }
+        return Collections.enumeration(urls);
+    }
+
     @Override
     public URL getResource(String name) {
         // Try our classpath first because the order of our entries may be different from our parent.
@@ -0,0 +1,77 @@
+package gg.essential.loader.stage2.relaunch;
+
+import java.util.Arrays;
+
+/**
+ * A set of string prefixes, each tagged with some flags, compiled into a trie so all prefixes matching a given string
+ * can be found with a single pass over that string (instead of calling {@link String#startsWith(String)} for each one).
+ * <p>
+ * Not thread-safe while being built, but may be shared freely once all prefixes have been added.
+ */
+class PrefixTrie {
+    private final Node root = new Node();
+
+    /**
+     * Adds the given prefix with the given flags. Flags of prefixes which are added multiple times are combined.
+     */
+    void add(String prefix, int flags) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.getOrCreateChild(prefix.charAt(i));
+        }
+        node.flags |= flags;
+    }
+
+    /**
+     * Returns the combined flags of all prefixes which the given string starts with, or {@code 0} if there are none.
+     */
+    int match(String str) {
+        Node node = root;
+        int flags = node.flags;
+        for (int i = 0; i < str.length(); i++) {
+            node = node.getChild(str.charAt(i));
+            if (node == null) {
+                break;
+            }
+            flags |= node.flags;
+        }
+        return flags;
+    }
+
+    private static class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        // Sorted, so we can binary search. Most nodes only have a single child anyway.
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private int flags;
+
+        Node getChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node getOrCreateChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -(i + 1);
+
+            char[] newKeys = new char[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            newKeys[i] = c;
+
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            Node child = newChildren[i] = new Node();
+
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
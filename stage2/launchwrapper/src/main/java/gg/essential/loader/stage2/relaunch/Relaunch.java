@@ -1,6 +1,7 @@
 package gg.essential.loader.stage2.relaunch;
 
 import gg.essential.loader.stage2.relaunch.args.LaunchArgs;
+import gg.essential.loader.stage2.util.ManifestIndex;
 import net.minecraft.launchwrapper.Launch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -14,14 +15,13 @@ import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
 
 @SuppressWarnings("UrlHashCode") // all our urls are local files
 public class Relaunch {
@@ -31,7 +31,7 @@ public class Relaunch {
 
     private static final String HAPPENED_PROPERTY = "essential.loader.relaunched";
 
-    public static void relaunch(Set<URL> prioritizedUrls) {
+    public static void relaunch(Set<URL> prioritizedUrls, ManifestIndex manifests) {
         LOGGER.warn("");
         LOGGER.warn("");
         LOGGER.warn("");
@@ -62,7 +62,7 @@ public class Relaunch {
             // So instead, we remove anything which declares a TweakClass which has in been loaded by the
             // CoreModManager.
             Set<String> tweakClasses = getTweakClasses();
-            urls.removeIf(url -> isTweaker(url, tweakClasses));
+            urls.removeIf(url -> isTweaker(url, tweakClasses, manifests));
 
             // Finally make sure our urls are on the classpath and before any other mod
             urls.removeIf(prioritizedUrls::contains);
@@ -73,10 +73,22 @@ public class Relaunch {
                 LOGGER.debug("    {}", url);
             }
 
-            RelaunchClassLoader relaunchClassLoader = new RelaunchClassLoader(urls.toArray(new URL[0]), systemClassLoader);
+            URL[] classPath = urls.toArray(new URL[0]);
+            Path gameDir = (Launch.minecraftHome != null ? Launch.minecraftHome : new File(".")).toPath().toAbsolutePath();
+            boolean recordClassList = ClassList.isRecordingEnabled();
+            boolean preloadClasses = ClassPreloader.isEnabled();
+            // Hashes the whole class path (including a stat of each jar), so only do that if we need it
+            Path classListFile = recordClassList || preloadClasses ? ClassList.getFile(gameDir, classPath) : null;
+            ClassList classList = recordClassList ? ClassList.startRecording(gameDir, classListFile) : null;
+
+            RelaunchClassLoader relaunchClassLoader = new RelaunchClassLoader(classPath, systemClassLoader, gameDir, classList);
             // Make it available for introspection in our tests
             Launch.blackboard.put("gg.essential.loader.stage2.relaunchClassLoader", relaunchClassLoader);
 
+            if (preloadClasses) {
+                ClassPreloader.start(relaunchClassLoader, ClassList.read(classListFile));
+            }
+
             List<String> args = new ArrayList<>(LaunchArgs.guessLaunchArgs());
             String main = args.remove(0);
 
@@ -143,7 +155,7 @@ public class Relaunch {
         }
     }
 
-    private static boolean isTweaker(URL url, Set<String> tweakClasses) {
+    private static boolean isTweaker(URL url, Set<String> tweakClasses, ManifestIndex manifests) {
         try {
             URI uri = url.toURI();
             if (!"file".equals(uri.getScheme())) {
@@ -153,13 +165,7 @@ public class Relaunch {
             if (!file.exists() || !file.isFile()) {
                 return false;
             }
-            try (JarFile jar = new JarFile(file)) {
-                Manifest manifest = jar.getManifest();
-                if (manifest == null) {
-                    return false;
-                }
-                return tweakClasses.contains(manifest.getMainAttributes().getValue("TweakClass"));
-            }
+            return tweakClasses.contains(manifests.get(file).tweakClass);
         } catch (Exception e) {
             LOGGER.error("Failed to read manifest from " + url + ":", e);
             return false;
@@ -6,29 +6,62 @@ import java.io.InputStream;
 import java.net.JarURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.Path;
 import java.security.CodeSigner;
 import java.security.CodeSource;
-import java.util.function.BiFunction;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 class RelaunchClassLoader extends IsolatedClassLoader {
     static { registerAsParallelCapable(); }
 
-    private final BiFunction<String, byte[], byte[]> transformer;
+    private final TransformedClassCache transformedClassCache;
+    private final ClassList classList; // null if not recording
 
-    public RelaunchClassLoader(URL[] urls, ClassLoader parent) {
+    public RelaunchClassLoader(URL[] urls, ClassLoader parent, Path gameDir, ClassList classList) {
         super(urls, parent);
 
-        this.transformer = new RelaunchTransformer();
+        this.transformedClassCache = new TransformedClassCache(
+            gameDir.resolve("essential").resolve("loader").resolve("transformed-classes"),
+            new RelaunchTransformer()
+        );
+        this.classList = classList;
     }
 
     @Override
     protected Class<?> findClassImpl(String name) throws ClassNotFoundException {
+        if (classList == null) {
+            return defineClassImpl(name);
+        }
+        return classList.record(name, () -> defineClassImpl(name));
+    }
+
+    @Override
+    protected boolean isMissDefinitive(String name) {
+        // If the class is not in our index, we still look for it in the parent class loader (see below), so we can only
+        // be sure that it stays missing if we can tell when urls are added to the parent.
+        return getParentUrlCount() != -1 && super.isMissDefinitive(name);
+    }
+
+    private Class<?> defineClassImpl(String name) throws ClassNotFoundException {
         URL jarUrl;
         Manifest jarManifest;
         byte[] bytes;
-        try {
-            URL url = getResource(name.replace('.', '/') + ".class");
+        String path = name.replace('.', '/') + ".class";
+        ClassPathIndex index = this.index;
+        int jarIndex = index != null ? index.find(path) : -1;
+        if (jarIndex != -1) try {
+            // Fast path: Read directly from the jar we already have open, no need to go through URLs and connections
+            JarFile jar = index.getJar(jarIndex);
+            jarUrl = index.getUrl(jarIndex);
+            jarManifest = jar.getManifest();
+            try (InputStream in = jar.getInputStream(jar.getEntry(path))) {
+                bytes = ByteStreams.toByteArray(in);
+            }
+        } catch (Exception e) {
+            throw new ClassNotFoundException(name, e);
+        } else try {
+            URL url = getResource(path);
             if (url == null) {
                 throw new ClassNotFoundException(name);
             }
@@ -66,7 +99,9 @@ class RelaunchClassLoader extends IsolatedClassLoader {
             }
         }
 
-        bytes = transformer.apply(name, bytes);
+        if (RelaunchTransformer.isTarget(name)) {
+            bytes = transformedClassCache.transform(name, bytes);
+        }
 
         return defineClass(name, bytes, 0, bytes.length, new CodeSource(jarUrl, (CodeSigner[]) null));
     }
@@ -18,8 +18,23 @@ import java.util.function.BiFunction;
 import static gg.essential.loader.stage2.relaunch.Relaunch.FML_TWEAKER;
 
 public class RelaunchTransformer implements BiFunction<String, byte[], byte[]> {
+    /**
+     * Returns whether {@link #apply(String, byte[])} may modify the class of the given name.
+     * Any class not listed here is passed through unmodified, so new transformations need to be added here first.
+     */
+    public static boolean isTarget(String name) {
+        return name.equals(FML_TWEAKER)
+            || name.endsWith(".EssentialSetupTweaker")
+            || name.equals("net.minecraftforge.fml.relauncher.ModListHelper")
+            || name.equals("net.minecraftforge.fml.relauncher.libraries.LibraryManager");
+    }
+
     @Override
     public byte[] apply(String name, byte[] bytes) {
+        if (!isTarget(name)) {
+            return bytes;
+        }
+
         // It installs a SecurityManager which locks itself down by rejecting any future managers and forge
         // itself refuses to boot if its manager is rejected (e.g. by a manager previously installed by it).
         if (name.equals(FML_TWEAKER)) {
@@ -0,0 +1,83 @@
+package gg.essential.loader.stage2.relaunch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.BiFunction;
+
+/**
+ * Persistent cache for the output of {@link RelaunchTransformer}, so the few classes it patches do not need to be
+ * parsed and written with ASM on every boot (which, more importantly, also means ASM itself does not need to be loaded).
+ * <p>
+ * Entries are keyed by class name and a hash of the input bytes and the loader version, so they are invalidated
+ * whenever either changes. Outdated entries for the same class are removed when a new one is written.
+ */
+class TransformedClassCache {
+    private static final Logger LOGGER = LogManager.getLogger(TransformedClassCache.class);
+
+    private final Path dir;
+    private final BiFunction<String, byte[], byte[]> transformer;
+
+    TransformedClassCache(Path dir, BiFunction<String, byte[], byte[]> transformer) {
+        this.dir = dir;
+        this.transformer = transformer;
+    }
+
+    byte[] transform(String name, byte[] bytes) {
+        String prefix = name + ".";
+        Path file = dir.resolve(prefix + hash(bytes) + ".class");
+        if (Files.exists(file)) {
+            try {
+                return Files.readAllBytes(file);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to read cached transformed class from " + file + ":", e);
+            }
+        }
+
+        byte[] transformed = transformer.apply(name, bytes);
+
+        try {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, path -> path.getFileName().toString().startsWith(prefix))) {
+                for (Path outdated : stream) {
+                    Files.deleteIfExists(outdated);
+                }
+            }
+            Path tempFile = Files.createTempFile(dir, "tmp-", ".class");
+            try {
+                Files.write(tempFile, transformed);
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to cache transformed class at " + file + ":", e);
+        }
+        return transformed;
+    }
+
+    private static String hash(byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        // The loader version is included because the transformations may differ between versions
+        digest.update(String.valueOf(System.getProperty("essential.stage2.version")).getBytes(StandardCharsets.UTF_8));
+        digest.update(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -4,17 +4,20 @@ import net.minecraft.launchwrapper.Launch;
 
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringJoiner;
-import java.util.function.Function;
+import java.util.function.Predicate;
 
 public class LaunchArgs {
     static final String FML_TWEAKER = "net.minecraftforge.fml.common.launcher.FMLTweaker";
+    private static final int MAX_FILE_NAME_LENGTH = 255; // common limit across all major file systems
 
     public static List<String> guessLaunchArgs() {
         String javaArgsStr = System.getProperty("sun.java.command");
@@ -56,41 +59,96 @@ public class LaunchArgs {
         knownArgs.addAll(launchArgs.keySet());
         knownArgs.addAll(launchArgs.values());
 
-        return splitIntoArguments(str, arg -> {
-            if (knownArgs.contains(arg)) {
-                return true;
-            }
-            try {
-                if (Files.exists(Paths.get(arg))) {
-                    return true;
-                }
-            } catch (InvalidPathException ignored) {
-            }
-            return false;
-        });
+        return splitIntoArguments(str, knownArgs, Files::exists);
     }
 
     /**
      * Splits the given command line into arguments potentially containing space characters by greedily including spaces
-     * in the arguments if the given heuristic returns true for the combination.
+     * in the arguments if the combination is one of the given known arguments or an existing file path.
+     * <p>
+     * To not have to check every possible combination of parts, known arguments are looked up by their first part, and
+     * the file path candidates starting at a given part are only extended for as long as their parent directory exists
+     * and their file name does not exceed what any file system would allow.
+     * Existence checks are memoized, so each path is checked at most once.
      */
-    private static List<String> splitIntoArguments(String str, Function<String, Boolean> isValidArg) {
+    static List<String> splitIntoArguments(String str, Set<String> knownArgs, Predicate<Path> exists) {
         String[] parts = str.split(" ");
+
+        // Known arguments which contain spaces, by their first part
+        Map<String, List<String[]>> knownArgsByFirstPart = new HashMap<>();
+        for (String knownArg : knownArgs) {
+            String[] knownParts = knownArg.split(" ", -1);
+            if (knownParts.length > 1) {
+                knownArgsByFirstPart.computeIfAbsent(knownParts[0], k -> new ArrayList<>()).add(knownParts);
+            }
+        }
+
+        Map<Path, Boolean> existsCache = new HashMap<>();
+        Predicate<Path> cachedExists = path -> existsCache.computeIfAbsent(path, exists::test);
+
         List<String> args = new ArrayList<>();
         // Go from argument to argument
         for (int from = 0; from < parts.length; from++) {
-            // And try to join as much as possible
-            for (int to = parts.length; to > from; to--) {
-                String joinedArg = join(parts, from, to);
-                // but only accept it if it's a single argument (i.e. no space remaining) or the heuristic likes it
-                if (from + 1 == to || isValidArg.apply(joinedArg)) {
-                    args.add(joinedArg);
-                    from = to - 1; // skip everything we just joined together
-                    break;
+            // and find the longest combination which the heuristics like (or just the single part if there is none)
+            int to = Math.max(
+                findLongestKnownArg(parts, from, knownArgsByFirstPart),
+                findLongestExistingPath(parts, from, cachedExists)
+            );
+            args.add(join(parts, from, to));
+            from = to - 1; // skip everything we just joined together
+        }
+        return args;
+    }
+
+    private static int findLongestKnownArg(String[] parts, int from, Map<String, List<String[]>> knownArgsByFirstPart) {
+        int longest = from + 1;
+        List<String[]> candidates = knownArgsByFirstPart.get(parts[from]);
+        if (candidates == null) {
+            return longest;
+        }
+        candidates:
+        for (String[] knownParts : candidates) {
+            int to = from + knownParts.length;
+            if (to <= longest || to > parts.length) {
+                continue;
+            }
+            for (int i = 1; i < knownParts.length; i++) {
+                if (!knownParts[i].equals(parts[from + i])) {
+                    continue candidates;
                 }
             }
+            longest = to;
         }
-        return args;
+        return longest;
+    }
+
+    private static int findLongestExistingPath(String[] parts, int from, Predicate<Path> exists) {
+        int longest = from + 1;
+        StringBuilder candidate = new StringBuilder(parts[from]);
+        for (int to = from + 2; to <= parts.length; to++) {
+            candidate.append(' ').append(parts[to - 1]);
+
+            Path path;
+            try {
+                path = Paths.get(candidate.toString());
+            } catch (InvalidPathException ignored) {
+                continue;
+            }
+
+            Path fileName = path.getFileName();
+            if (fileName != null && fileName.toString().length() > MAX_FILE_NAME_LENGTH) {
+                break; // no such file can exist, and neither can any longer one
+            }
+            Path parent = path.getParent();
+            if (parent != null && !exists.test(parent)) {
+                break; // parent does not exist, so neither can this file or any longer one
+            }
+
+            if (exists.test(path)) {
+                longest = to;
+            }
+        }
+        return longest;
     }
 
     private static String join(String[] array, int from, int to) {
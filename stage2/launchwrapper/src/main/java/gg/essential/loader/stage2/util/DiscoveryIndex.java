@@ -0,0 +1,159 @@
+package gg.essential.loader.stage2.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Persistent index of what the {@link gg.essential.loader.stage2.Loader} found when it last inspected a given jar, so
+ * jars which have not changed since the last boot do not need to be opened at all.
+ * <p>
+ * Entries for files are keyed by path and only used while the file's size and modification time are unchanged.
+ * Entries for jars nested in other jars are keyed by their content (CRC and size) instead. The whole index
+ * is discarded when the loader version changes, because a different version may need to extract different information.
+ * Entries which were not used during a boot are dropped the next time the index is saved.
+ * <p>
+ * This class is thread-safe.
+ */
+public class DiscoveryIndex {
+    private static final Logger LOGGER = LogManager.getLogger(DiscoveryIndex.class);
+    private static final Gson GSON = new Gson();
+
+    private final Path file;
+    private final String loaderVersion;
+    private Map<String, Entry> entries;
+    private final Map<String, Entry> usedEntries = new HashMap<>();
+    private boolean dirty;
+
+    public DiscoveryIndex(Path file, String loaderVersion) {
+        this.file = file;
+        this.loaderVersion = loaderVersion;
+    }
+
+    /**
+     * Returns the index entry for the given jar file, or {@code null} if there is none or it is outdated.
+     */
+    public Entry get(Path jar) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        return get(jar.toString(), attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Returns the entry for the given key, or {@code null} if there is none or its size or stamp do not match.
+     */
+    public synchronized Entry get(String key, long size, long stamp) {
+        Entry entry = getEntries().get(key);
+        if (entry == null || entry.size != size || entry.stamp != stamp) {
+            return null;
+        }
+        usedEntries.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Stores the given entry for the given jar file. The size and modification time should be read before the jar is
+     * inspected, so if it changes while we're looking at it, the entry will simply be considered outdated next time.
+     */
+    public void put(Path jar, BasicFileAttributes attributes, Entry entry) {
+        put(jar.toString(), attributes.size(), attributes.lastModifiedTime().toMillis(), entry);
+    }
+
+    public synchronized void put(String key, long size, long stamp, Entry entry) {
+        entry.size = size;
+        entry.stamp = stamp;
+        getEntries().put(key, entry);
+        usedEntries.put(key, entry);
+        dirty = true;
+    }
+
+    public synchronized void save() {
+        if (!dirty && usedEntries.size() == getEntries().size()) {
+            return; // nothing changed
+        }
+
+        Index index = new Index();
+        index.loaderVersion = loaderVersion;
+        index.jars = new HashMap<>(usedEntries);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tempFile = Files.createTempFile(file.getParent(), "tmp-", ".json");
+            try {
+                try (Writer out = Files.newBufferedWriter(tempFile)) {
+                    GSON.toJson(index, out);
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            entries = index.jars;
+            dirty = false;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write discovery index to " + file + ":", e);
+        }
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            if (Files.exists(file)) {
+                try (Reader in = Files.newBufferedReader(file)) {
+                    Index index = GSON.fromJson(in, Index.class);
+                    if (index != null && Objects.equals(index.loaderVersion, loaderVersion) && index.jars != null) {
+                        entries.putAll(index.jars);
+                    }
+                } catch (IOException | JsonParseException e) {
+                    LOGGER.warn("Failed to read discovery index at " + file + ":", e);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static class Index {
+        String loaderVersion;
+        Map<String, Entry> jars;
+    }
+
+    public static class Entry {
+        long size;
+        long stamp; // modification time for files, CRC for nested jars
+
+        /** Raw content of the jar's {@code essential.mod.json}, {@code null} if it has none. */
+        public String descriptor;
+        /** Whether the jar contains an embedded stage1 jar. */
+        public boolean hasStage1;
+        /** Version of the embedded stage1 jar, -1 if unknown. */
+        public int stage1Version = -1;
+        /** Version of the stage2 jar embedded in the embedded stage1 jar, {@code null} if unknown. */
+        public String stage2Version;
+        /** Version of the MixinExtras classes directly contained in the jar, {@code null} if none. */
+        public String mixinExtrasVersion;
+        /** Whether the jar's manifest declares that it does not implicitly depend on Essential. */
+        public boolean notImplicitlyDependingOnEssential;
+        /** Whether the jar contains the Essential container marker file. */
+        public boolean containerMarker;
+        /** Value of the {@code TweakClass} manifest attribute, {@code null} if absent or not read (nested jars). */
+        public String tweakClass;
+        /** Value of the {@code FMLCorePlugin} manifest attribute, {@code null} if absent or not read (nested jars). */
+        public String fmlCorePlugin;
+        /** Whether the manifest has a {@code MixinConfigs} attribute, always false for nested jars. */
+        public boolean hasMixinConfigs;
+    }
+}
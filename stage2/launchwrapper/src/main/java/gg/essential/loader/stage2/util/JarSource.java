@@ -0,0 +1,100 @@
+package gg.essential.loader.stage2.util;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * A jar which is either a plain file, or an entry in another (possibly itself nested) jar.
+ * <p>
+ * Nested jars are read in place (i.e. from the outer jar into memory) and only written to disk once an actual file is
+ * required (see {@link #toFile(JarStore)}), in which case they are extracted into a {@link JarStore}, so the same file
+ * is re-used on subsequent boots.
+ * <p>
+ * This class is thread-safe.
+ */
+public class JarSource {
+    private final JarSource outer; // null for plain files
+    private final Path path; // the file for plain files, a pseudo path (outer path + entry name) otherwise
+    private final RawZipFile.Entry entry; // null for plain files
+    private Path file;
+
+    private JarSource(JarSource outer, Path path, RawZipFile.Entry entry) {
+        this.outer = outer;
+        this.path = path;
+        this.entry = entry;
+        this.file = outer == null ? path : null;
+    }
+
+    public static JarSource ofFile(Path file) {
+        return new JarSource(null, file, null);
+    }
+
+    /**
+     * Returns the jar nested in this jar at the given path.
+     *
+     * @throws NoSuchFileException if there is no such entry in this jar
+     */
+    public JarSource getNested(String name) throws IOException {
+        try (RawZipFile zip = open()) {
+            RawZipFile.Entry entry = zip.getEntry(name.startsWith("/") ? name.substring(1) : name);
+            if (entry == null || entry.isDirectory()) {
+                throw new NoSuchFileException(path + "!/" + name);
+            }
+            return new JarSource(this, path.resolve(entry.getName()), entry);
+        }
+    }
+
+    /**
+     * Returns whether this jar is nested in another jar.
+     */
+    public boolean isNested() {
+        return outer != null;
+    }
+
+    /**
+     * Returns the path of this jar if it is a plain file, or a pseudo path consisting of the path of the outer jar and
+     * the name of the entry if it is nested. Only meant to identify this jar, not to actually access it.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the entry of this jar in its outer jar, or {@code null} if it is a plain file.
+     */
+    public RawZipFile.Entry getEntry() {
+        return entry;
+    }
+
+    /**
+     * Opens this jar for reading. For nested jars, this reads the whole jar into memory.
+     */
+    public RawZipFile open() throws IOException {
+        if (outer == null) {
+            return new RawZipFile(path);
+        }
+        byte[] bytes;
+        try (RawZipFile outerZip = outer.open()) {
+            bytes = outerZip.readAllBytes(entry);
+        }
+        return new RawZipFile(path, bytes);
+    }
+
+    /**
+     * Returns a file containing this jar, extracting it into the given store if it is nested.
+     */
+    public synchronized Path toFile(JarStore store) throws IOException {
+        if (file == null) {
+            try (RawZipFile outerZip = outer.open()) {
+                file = store.extract(outerZip, entry);
+            }
+        }
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return outer == null ? path.toString() : outer + "!/" + entry.getName();
+    }
+}
@@ -0,0 +1,94 @@
+package gg.essential.loader.stage2.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * The manifest attributes we care about for all the jars we have looked at during this boot, so each manifest only
+ * needs to be parsed once, even though the loader, the relaunch and the relaunched loader all need (mostly the same)
+ * information about (mostly the same) jars.
+ * <p>
+ * Entries are keyed by absolute path and only used while the file's size and modification time are unchanged.
+ * Instances are serialized with Gson to be passed to the relaunched loader, see {@code RelaunchInfo}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ManifestIndex {
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * Returns the manifest attributes of the given jar file, reading them if they are not yet known.
+     */
+    public Entry get(File file) throws IOException {
+        String key = getKey(file.toPath());
+        // Same as what DiscoveryIndex stores; in particular not File.lastModified, which is only accurate to the second
+        // on some platforms (e.g. Java 8 on Unix), so it would never match
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+                return entry;
+            }
+        }
+
+        Entry entry = new Entry();
+        try (JarFile jar = new JarFile(file, false)) {
+            Manifest manifest = jar.getManifest();
+            if (manifest != null) {
+                entry.read(manifest.getMainAttributes());
+            }
+        }
+        put(key, size, lastModified, entry);
+        return entry;
+    }
+
+    /**
+     * Stores the manifest attributes which {@link gg.essential.loader.stage2.Loader} read (or got from its
+     * {@link DiscoveryIndex}) for the given jar file.
+     */
+    public void put(Path file, DiscoveryIndex.Entry scan) {
+        Entry entry = new Entry();
+        entry.tweakClass = scan.tweakClass;
+        entry.fmlCorePlugin = scan.fmlCorePlugin;
+        entry.hasMixinConfigs = scan.hasMixinConfigs;
+        put(getKey(file), scan.size, scan.stamp, entry);
+    }
+
+    private synchronized void put(String key, long size, long lastModified, Entry entry) {
+        entry.size = size;
+        entry.lastModified = lastModified;
+        entries.put(key, entry);
+    }
+
+    private static String getKey(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    public static class Entry {
+        long size;
+        long lastModified;
+
+        /** Value of the {@code TweakClass} attribute, {@code null} if absent. */
+        public String tweakClass;
+        /** Value of the {@code FMLCorePlugin} attribute, {@code null} if absent. */
+        public String fmlCorePlugin;
+        /** Whether the manifest has a {@code MixinConfigs} attribute. */
+        public boolean hasMixinConfigs;
+
+        void read(Attributes attributes) {
+            tweakClass = attributes.getValue("TweakClass");
+            fmlCorePlugin = attributes.getValue("FMLCorePlugin");
+            hasMixinConfigs = attributes.getValue("MixinConfigs") != null;
+        }
+    }
+}
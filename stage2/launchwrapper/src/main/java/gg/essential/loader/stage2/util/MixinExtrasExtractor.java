@@ -11,17 +11,16 @@ import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.util.jar.JarOutputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
-import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 public class MixinExtrasExtractor {
     private static final Logger LOGGER = LogManager.getLogger(MixinExtrasExtractor.class);
@@ -29,12 +28,12 @@ public class MixinExtrasExtractor {
     private static final String MIXINEXTRAS_PACKAGE_PATH = "com/llamalad7/mixinextras";
     private static final String MIXIN_EXTRAS_VERSION_CLASS = MIXINEXTRAS_PACKAGE_PATH + "/service/MixinExtrasVersion.class";
 
-    public static String readMixinExtrasVersion(Path jar, FileSystem jarFileSystem) {
+    public static String readMixinExtrasVersion(RawZipFile jar) {
         try {
-            Path classFilePath = jarFileSystem.getPath(MIXIN_EXTRAS_VERSION_CLASS);
-            if (!Files.exists(classFilePath)) return null;
+            RawZipFile.Entry classFileEntry = jar.getEntry(MIXIN_EXTRAS_VERSION_CLASS);
+            if (classFileEntry == null) return null;
 
-            byte[] bytes = Files.readAllBytes(classFilePath);
+            byte[] bytes = jar.readAllBytes(classFileEntry);
             ClassNode classNode = new ClassNode();
             ClassReader classReader = new ClassReader(bytes);
             classReader.accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
@@ -77,39 +76,50 @@ public class MixinExtrasExtractor {
 
             throw new UnsupportedOperationException("Failed to find version argument");
         } catch (Exception e) {
-            LOGGER.error("Failed to determine version of MixinExtras in {}", jar, e);
+            LOGGER.error("Failed to determine version of MixinExtras in {}", jar.getPath(), e);
             return null;
         }
     }
 
-    public static void extractMixinExtras(Path sourceJar, Path extractedJar, String version) throws IOException {
+    /**
+     * Returns a hash of the MixinExtras classes in the given jar, computed from the names, CRCs and sizes recorded in its
+     * central directory, i.e. without having to read the classes themselves.
+     */
+    public static long hashMixinExtras(RawZipFile jar) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        for (RawZipFile.Entry entry : jar.getEntries()) {
+            if (!entry.getName().startsWith(MIXINEXTRAS_PACKAGE_PATH + "/") || entry.isDirectory()) continue;
+            crc.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+            buf.clear();
+            buf.putLong(entry.getCrc()).putLong(entry.getSize());
+            crc.update(buf.array());
+        }
+        return crc.getValue();
+    }
+
+    public static void extractMixinExtras(RawZipFile sourceJar, Path extractedJar, String version) throws IOException {
         // Create manifest file
         // One is implicitly required by LaunchClassLoader, otherwise won't be declaring `Package`s for the classes in
         // the jar, and MixinExtras initialization code will consequently NPE.
         Manifest manifest = new Manifest();
         // and while we're at it, may as well set the correct version
+        // (Manifest-Version is required, otherwise `Manifest.write` silently drops all main attributes)
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
         manifest.getMainAttributes().putValue("Implementation-Version", version);
-
-        // Create empty jar file
-        try (OutputStream out = Files.newOutputStream(extractedJar, StandardOpenOption.TRUNCATE_EXISTING)) {
-            new JarOutputStream(out, manifest).close();
-        }
-
-        // Copy MixinExtras package from source jar to our new jar
-        try (FileSystem srcFs = FileSystems.newFileSystem(sourceJar, (ClassLoader) null)) {
-            try (FileSystem dstFs = FileSystems.newFileSystem(extractedJar, (ClassLoader) null)) {
-                // Note: These are `toAbsolutePath`ed as a workaround for ZipFileSystem sometimes returning absolute
-                //       `Path`s from `walk` even when the `start` `Path` is relative.
-                Path srcRoot = srcFs.getPath(MIXINEXTRAS_PACKAGE_PATH).toAbsolutePath();
-                Path dstRoot = dstFs.getPath(MIXINEXTRAS_PACKAGE_PATH).toAbsolutePath();
-
-                try (Stream<Path> stream = Files.walk(srcRoot)) {
-                    for (Path src : (Iterable<? extends Path>) stream::iterator) {
-                        src = src.toAbsolutePath(); // necessary because *see note above*
-                        Path dst = dstRoot.resolve(srcRoot.relativize(src));
-                        Files.createDirectories(dst.getParent());
-                        Files.copy(src, dst);
-                    }
+        ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+        manifest.write(manifestBytes);
+
+        try (DeterministicZipWriter out = new DeterministicZipWriter(extractedJar)) {
+            out.write(JarFile.MANIFEST_NAME, new ByteArrayInputStream(manifestBytes.toByteArray()));
+
+            // Copy MixinExtras package from source jar to our new jar, as is, no need to inflate and deflate it again
+            for (RawZipFile.Entry entry : sourceJar.getEntries()) {
+                if (!entry.getName().startsWith(MIXINEXTRAS_PACKAGE_PATH + "/")) continue;
+                if (entry.isDirectory()) {
+                    out.writeDirectory(entry.getName());
+                } else {
+                    out.copyRaw(entry.getName(), sourceJar, entry);
                 }
             }
         }
@@ -0,0 +1,142 @@
+package gg.essential.loader.stage2.relaunch;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PrefixTrieTest {
+    // The lists which IsolatedClassLoader is expected to use, for the previous, linear implementation
+    private static final List<String> EXCLUSIONS = Arrays.asList(
+        "java.", "javax.", "sun.", "jdk.", "org.apache.logging.", "org.lwjgl."
+    );
+    private static final List<String> INCLUSIONS = Arrays.asList(
+        "org.apache.logging.slf4j."
+    );
+
+    // Roughly what a modded 1.8.9 / 1.12.2 instance loads, weighted by how often each package shows up
+    private static final String[][] PACKAGES = {
+        {"net.minecraft.client.renderer.", "40"},
+        {"net.minecraft.util.", "30"},
+        {"net.minecraftforge.fml.common.", "20"},
+        {"gg.essential.lib.", "20"},
+        {"gg.essential.", "10"},
+        {"kotlin.collections.", "15"},
+        {"com.google.common.collect.", "10"},
+        {"org.spongepowered.asm.mixin.", "10"},
+        {"java.util.", "15"},
+        {"java.lang.", "10"},
+        {"javax.annotation.", "2"},
+        {"sun.reflect.", "5"},
+        {"jdk.internal.", "1"},
+        {"org.lwjgl.opengl.", "8"},
+        {"org.apache.logging.log4j.", "5"},
+        {"org.apache.logging.slf4j.", "1"},
+        {"org.apache.commons.lang3.", "4"},
+        {"org.slf4j.", "2"},
+        {"", "1"},
+    };
+
+    private static IsolatedClassLoader createClassLoader() {
+        return new IsolatedClassLoader(new URL[0], PrefixTrieTest.class.getClassLoader());
+    }
+
+    // The previous, linear implementation, as reference
+    private static boolean isExcludedLinear(String name) {
+        for (String inclusion : INCLUSIONS) {
+            if (name.startsWith(inclusion)) {
+                return false;
+            }
+        }
+        for (String exclusion : EXCLUSIONS) {
+            if (name.startsWith(exclusion)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> generateClassNames(int count) {
+        List<String> weighted = new ArrayList<>();
+        for (String[] pkg : PACKAGES) {
+            for (int i = 0; i < Integer.parseInt(pkg[1]); i++) {
+                weighted.add(pkg[0]);
+            }
+        }
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(weighted.get(random.nextInt(weighted.size())) + "Class" + random.nextInt(10000));
+        }
+        return names;
+    }
+
+    @Test
+    void matchesLinearImplementation() throws IOException {
+        try (IsolatedClassLoader loader = createClassLoader()) {
+            for (String name : generateClassNames(10000)) {
+                assertEquals(isExcludedLinear(name), loader.isClassExcluded(name), name);
+            }
+            for (String name : Arrays.asList("", "java", "java.", "javax", "org.apache.logging.slf4j", "org.apache.logging.slf4j.Foo", "org.apache.logging.Foo")) {
+                assertEquals(isExcludedLinear(name), loader.isClassExcluded(name), name);
+            }
+        }
+    }
+
+    @Test
+    void combinesFlags() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.add("", 1);
+        trie.add("a.", 2);
+        trie.add("a.", 4);
+        trie.add("a.b.", 8);
+        assertEquals(1, trie.match("b.C"));
+        assertEquals(1, trie.match("a"));
+        assertEquals(1 | 2 | 4, trie.match("a.C"));
+        assertEquals(1 | 2 | 4 | 8, trie.match("a.b.C"));
+    }
+
+    /**
+     * Not a real benchmark (no proper isolation, no assertions), but good enough to compare the two implementations
+     * when run locally. Correctness is covered by {@link #matchesLinearImplementation()}.
+     */
+    @Test
+    @Tag("benchmark")
+    void microbenchmark() throws IOException {
+        try (IsolatedClassLoader loader = createClassLoader()) {
+            List<String> names = generateClassNames(100000);
+
+            int rounds = 20;
+            long linearNanos = 0;
+            long trieNanos = 0;
+            int blackhole = 0;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                for (String name : names) {
+                    if (isExcludedLinear(name)) blackhole++;
+                }
+                long mid = System.nanoTime();
+                for (String name : names) {
+                    if (loader.isClassExcluded(name)) blackhole++;
+                }
+                long end = System.nanoTime();
+                // First half of the rounds is warmup
+                if (round >= rounds / 2) {
+                    linearNanos += mid - start;
+                    trieNanos += end - mid;
+                }
+            }
+
+            long ops = (long) names.size() * (rounds - rounds / 2);
+            System.out.printf("linear: %.1f ns/op, trie: %.1f ns/op (%d)%n",
+                (double) linearNanos / ops, (double) trieNanos / ops, blackhole);
+        }
+    }
+}
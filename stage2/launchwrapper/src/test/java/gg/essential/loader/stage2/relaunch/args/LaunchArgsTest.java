@@ -0,0 +1,180 @@
+package gg.essential.loader.stage2.relaunch.args;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LaunchArgsTest {
+    private static final String GAME_DIR = "/home/user/Library/Application Support/minecraft";
+
+    private static Predicate<Path> fileSystem(String... files) {
+        Set<Path> existing = new HashSet<>();
+        for (String file : files) {
+            for (Path path = Paths.get(file); path != null; path = path.getParent()) {
+                existing.add(path);
+            }
+        }
+        return existing::contains;
+    }
+
+    @Test
+    void joinsKnownArgsAndExistingPaths() {
+        Predicate<Path> fs = fileSystem(GAME_DIR + "/assets", "/opt/My Java/bin/java");
+        Set<String> knownArgs = new HashSet<>(Arrays.asList("--username", "Some Player", "--gameDir", GAME_DIR));
+
+        List<String> args = LaunchArgs.splitIntoArguments(
+            "net.minecraft.launchwrapper.Launch --username Some Player --gameDir " + GAME_DIR
+                + " --assetsDir " + GAME_DIR + "/assets --java /opt/My Java/bin/java --title Not A Path",
+            knownArgs, fs);
+
+        assertEquals(Arrays.asList(
+            "net.minecraft.launchwrapper.Launch",
+            "--username", "Some Player",
+            "--gameDir", GAME_DIR,
+            "--assetsDir", GAME_DIR + "/assets",
+            "--java", "/opt/My Java/bin/java",
+            "--title", "Not", "A", "Path"
+        ), args);
+    }
+
+    @Test
+    void prefersLongestMatch() {
+        Predicate<Path> fs = fileSystem("/a b", "/a b c/d");
+        assertEquals(Arrays.asList("/a b c/d", "e"), LaunchArgs.splitIntoArguments("/a b c/d e", new HashSet<>(), fs));
+        assertEquals(Arrays.asList("/a b", "x"), LaunchArgs.splitIntoArguments("/a b x", new HashSet<>(), fs));
+        Set<String> knownArgs = new HashSet<>(Arrays.asList("/a b c/d e"));
+        assertEquals(Arrays.asList("/a b c/d e"), LaunchArgs.splitIntoArguments("/a b c/d e", knownArgs, fs));
+    }
+
+    @Test
+    void keepsRepeatedSpaces() {
+        Predicate<Path> fs = fileSystem("/a  b");
+        assertEquals(Arrays.asList("/a  b", "", "c"), LaunchArgs.splitIntoArguments("/a  b  c", new HashSet<>(), fs));
+    }
+
+    /**
+     * A command line with 500 parts, as seen with launchers which pass lots of arguments (and paths with spaces), with
+     * the known arguments and the files which exist.
+     */
+    private static class LargeCommand {
+        final StringJoiner line = new StringJoiner(" ");
+        final Set<String> knownArgs = new HashSet<>();
+        final Predicate<Path> fs;
+
+        LargeCommand() {
+            List<String> files = new ArrayList<>();
+            line.add("net.minecraft.launchwrapper.Launch");
+            int parts = 1;
+            for (int i = 0; parts < 500; i++) {
+                switch (i % 4) {
+                    case 0:
+                        line.add("--option" + i).add("value" + i);
+                        knownArgs.add("--option" + i);
+                        knownArgs.add("value" + i);
+                        parts += 2;
+                        break;
+                    case 1:
+                        String file = GAME_DIR + "/mods/Some Mod " + i + ".jar";
+                        files.add(file);
+                        line.add("--mod").add(file);
+                        parts += 1 + 4;
+                        break;
+                    case 2:
+                        line.add("--title").add("Not A Path " + i);
+                        parts += 1 + 4;
+                        break;
+                    case 3:
+                        line.add("--known").add("Some Known Value " + i);
+                        knownArgs.add("Some Known Value " + i);
+                        parts += 1 + 4;
+                        break;
+                }
+            }
+            fs = fileSystem(files.toArray(new String[0]));
+        }
+
+        List<String> split(AtomicInteger checks) {
+            return LaunchArgs.splitIntoArguments(line.toString(), knownArgs, path -> {
+                checks.incrementAndGet();
+                return fs.test(path);
+            });
+        }
+
+        List<String> splitQuadratic(AtomicInteger checks) {
+            return splitIntoArgumentsQuadratic(line.toString(), arg -> {
+                if (knownArgs.contains(arg)) {
+                    return true;
+                }
+                checks.incrementAndGet();
+                try {
+                    return fs.test(Paths.get(arg));
+                } catch (InvalidPathException ignored) {
+                    return false;
+                }
+            });
+        }
+    }
+
+    @Test
+    void matchesQuadraticImplementation() {
+        LargeCommand command = new LargeCommand();
+        assertEquals(command.splitQuadratic(new AtomicInteger()), command.split(new AtomicInteger()));
+    }
+
+    /**
+     * Compares the time and number of file system checks against the previous implementation (which tried every
+     * combination of parts). Prints them, does not assert on them, see {@link #matchesQuadraticImplementation()}.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmark() {
+        LargeCommand command = new LargeCommand();
+
+        AtomicInteger newChecks = new AtomicInteger();
+        long start = System.nanoTime();
+        command.split(newChecks);
+        long mid = System.nanoTime();
+        AtomicInteger oldChecks = new AtomicInteger();
+        command.splitQuadratic(oldChecks);
+        long end = System.nanoTime();
+
+        System.out.printf("%d parts: previously %dms with %d checks, now %dms with %d checks%n",
+            command.line.toString().split(" ").length,
+            (end - mid) / 1_000_000, oldChecks.get(),
+            (mid - start) / 1_000_000, newChecks.get());
+    }
+
+    // The previous implementation, as reference
+    private static List<String> splitIntoArgumentsQuadratic(String str, Predicate<String> isValidArg) {
+        String[] parts = str.split(" ");
+        List<String> args = new ArrayList<>();
+        for (int from = 0; from < parts.length; from++) {
+            for (int to = parts.length; to > from; to--) {
+                StringJoiner joiner = new StringJoiner(" ");
+                for (int i = from; i < to; i++) {
+                    joiner.add(parts[i]);
+                }
+                String joinedArg = joiner.toString();
+                if (from + 1 == to || isValidArg.test(joinedArg)) {
+                    args.add(joinedArg);
+                    from = to - 1;
+                    break;
+                }
+            }
+        }
+        return args;
+    }
+}
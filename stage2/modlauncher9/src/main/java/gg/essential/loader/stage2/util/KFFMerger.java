@@ -10,14 +10,14 @@ import gg.essential.loader.stage2.modlauncher.CompatibilityLayer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -42,9 +42,7 @@ public class KFFMerger {
     private static final Logger LOGGER = LogManager.getLogger();
 
     private static final Pattern JIJ_KOTLIN_FILES = Pattern.compile("kotlinx?-([a-z0-9-]+)-(\\d+\\.\\d+\\.\\d+)\\.jar");
-    private static final byte[] EMPTY_ZIP = new byte[] {
-        0x50, 0x4b, 0x05, 0x06, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
-    };
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
 
     private static class Libraries {
         private final String name;
@@ -55,13 +53,11 @@ public class KFFMerger {
             this.name = name;
         }
 
-        public void maybeUpgrade(List<Path> injectedJars, int theirVersion) {
+        public void maybeUpgrade(List<SecureJar> injectedJars, int theirVersion) {
             if (theirVersion < this.version) {
                 LOGGER.info("Found outdated {} libs {} (we ship {})",
                     name, versionStr(theirVersion), versionStr(this.version));
-                for (SecureJar jar : jars) {
-                    injectedJars.add(jar.getRootPath());
-                }
+                injectedJars.addAll(jars);
             } else {
                 LOGGER.info("Found up-to-date {} libs {} (we ship {})",
                     name, versionStr(theirVersion), versionStr(this.version));
@@ -151,7 +147,7 @@ public class KFFMerger {
             return null;
         }
 
-        List<Path> injectedJars = new ArrayList<>();
+        List<SecureJar> injectedJars = new ArrayList<>();
         ourCoreJars.maybeUpgrade(injectedJars, theirCoreVersion);
         ourCoroutinesJars.maybeUpgrade(injectedJars, theirCoroutinesVersion);
         ourSerializationJars.maybeUpgrade(injectedJars, theirSerializationVersion);
@@ -165,38 +161,26 @@ public class KFFMerger {
             JarMetadata orgMeta = compatibilityLayer.getJarMetadata(secureJar, secureJar.getPrimaryPath());
 
             Path tmpFile = Files.createTempFile("kff-updated-kotlin-", "-" + orgMeta.version() + ".jar");
-            Files.write(tmpFile, EMPTY_ZIP);
 
             LOGGER.info("Generating jar with updated Kotlin at {}", tmpFile);
 
             // We'll skip files we've already seen, so the original jar goes last
-            injectedJars.add(secureJar.getRootPath());
+            injectedJars.add(secureJar);
 
-            try (FileSystem destFileSystem = FileSystems.newFileSystem(tmpFile)) {
+            try (DeterministicZipWriter out = new DeterministicZipWriter(tmpFile)) {
                 Set<String> seen = new HashSet<>();
-                seen.add("");
-                for (Path sourceRoot : injectedJars) {
-                    try (Stream<Path> stream = Files.walk(sourceRoot)) {
-                        for (Path sourcePath : stream.toList()) {
-                            String relativePath = sourceRoot.relativize(sourcePath).toString();
-                            if (!seen.add(relativePath)) {
-                                continue;
-                            }
-                            Path destinationPath = destFileSystem.getPath(relativePath);
-                            if (Files.isDirectory(sourcePath)) {
-                                Files.createDirectory(destinationPath);
-                            } else {
-                                Files.copy(sourcePath, destinationPath);
-                            }
-                        }
-                    }
-                }
 
                 // Special case, need the manifest from the original for Forge to properly load the file
                 Path sourceManifest = secureJar.getRootPath().resolve("META-INF").resolve("MANIFEST.MF");
-                Path destinationManifest = destFileSystem.getPath("META-INF", "MANIFEST.MF");
                 if (Files.exists(sourceManifest)) {
-                    Files.copy(sourceManifest, destinationManifest, StandardCopyOption.REPLACE_EXISTING);
+                    seen.add(MANIFEST);
+                    try (InputStream in = Files.newInputStream(sourceManifest)) {
+                        out.write(MANIFEST, in);
+                    }
+                }
+
+                for (SecureJar jar : injectedJars) {
+                    copyEntries(jar, out, seen);
                 }
             }
 
@@ -213,6 +197,45 @@ public class KFFMerger {
         }
     }
 
+    /**
+     * Copies all entries of the given jar which have not yet been seen to the given output.
+     * If possible, entries are copied with their existing compressed data, so we don't have to re-compress all of
+     * Kotlin (and KFF) on every boot.
+     */
+    private static void copyEntries(SecureJar jar, DeterministicZipWriter out, Set<String> seen) throws IOException {
+        Path file = jar.getPrimaryPath();
+        if (file.getFileSystem() == FileSystems.getDefault() && Files.isRegularFile(file)) {
+            try (RawZipFile zip = new RawZipFile(file)) {
+                for (RawZipFile.Entry entry : zip.getEntries()) {
+                    if (seen.add(entry.getName())) {
+                        out.copyRaw(entry.getName(), zip, entry);
+                    }
+                }
+            }
+            return;
+        }
+
+        // Not a plain jar file on disk (e.g. nested in another jar), so we need to go through its file system instead
+        Path root = jar.getRootPath();
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path path : stream.toList()) {
+                String name = root.relativize(path).toString();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                if (Files.isDirectory(path)) {
+                    if (seen.add(name + "/")) {
+                        out.writeDirectory(name + "/");
+                    }
+                } else if (seen.add(name)) {
+                    try (InputStream in = Files.newInputStream(path)) {
+                        out.write(name, in);
+                    }
+                }
+            }
+        }
+    }
+
     public static boolean isJarJarKff(SecureJar jar) {
         try {
             Path jarjarPath = jar.getRootPath().resolve("META-INF").resolve("jarjar").resolve("metadata.json");